@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.http.impl.auth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Type 3 generation deriving the password hashes per message with generation from cached credential hashes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NTLMType3Benchmark {
+
+    private static final String USER = "svc-sharepoint";
+    private static final String PASSWORD = "Sh4rePoint-Passw0rd!";
+    private static final String DOMAIN = "CORP.EXAMPLE.COM";
+    private static final String WORKSTATION = "android-device";
+
+    @Param({"true", "false"})
+    public boolean ntlmv2;
+
+    private PublicNTLMEngineImpl engine;
+    private PublicNTLMEngineImpl.CredentialHashes credentials;
+    private String challenge;
+
+    @Setup
+    public void setup() {
+        engine = new PublicNTLMEngineImpl();
+        credentials = new PublicNTLMEngineImpl.CredentialHashes(DOMAIN, USER, PASSWORD);
+        challenge = Type2Messages.create(ntlmv2);
+    }
+
+    @Benchmark
+    public String type3PerMessageHashes() throws NTLMEngineException {
+        return engine.generateType3Msg(USER, PASSWORD, DOMAIN, WORKSTATION, challenge);
+    }
+
+    @Benchmark
+    public String type3CachedHashes() throws NTLMEngineException {
+        return engine.generateType3Msg(credentials, WORKSTATION, challenge);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning a captured response body into the value of the response body attribute, with new String as it was
+ * done before and with the per-thread decoder. The body is captured up to its own size, so it is complete and counts
+ * as possibly truncated, which is the common case of a body that reaches 'Max Length To Put In Attribute'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttributeDecoderBenchmark {
+
+    @Param({"256", "65536", "1048576"})
+    public int bodySize;
+
+    /**
+     * ASCII JSON is the usual SharePoint response, Cyrillic text exercises multi-byte decoding.
+     */
+    @Param({"ascii", "cyrillic"})
+    public String content;
+
+    @Param({"UTF-8"})
+    public String charsetName;
+
+    private Charset charset;
+    private SoftLimitBoundedByteArrayOutputStream capture;
+
+    @Setup
+    public void setup() throws IOException {
+        charset = Charset.forName(charsetName);
+        final String unit = "ascii".equals(content) ? "{\"Title\":\"Quarterly report\",\"Id\":42}," : "Отчёт по заявке № 42, ";
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < bodySize) {
+            text.append(unit);
+        }
+        capture = new SoftLimitBoundedByteArrayOutputStream(bodySize);
+        capture.fillFrom(new ByteArrayInputStream(text.toString().getBytes(charset)));
+    }
+
+    @Benchmark
+    public String newString() {
+        return new String(capture.getBuffer(), 0, capture.size(), charset);
+    }
+
+    @Benchmark
+    public String decoder() {
+        return AttributeDecoder.decode(capture, charset);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the request for a FlowFile: Expression Language headers from dynamic properties, the Date header and
+ * the attributes matched by 'Attributes to Send'.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBuildingBenchmark {
+
+    /**
+     * Number of FlowFile attributes, half of which match 'Attributes to Send'.
+     */
+    @Param({"10", "100"})
+    public int attributes;
+
+    private CustomInvokeHTTP processor;
+    private ProcessContext context;
+    private ProcessSession session;
+    private MockFlowFile flowFile;
+    private HttpUrl url;
+
+    @Setup
+    public void setup() throws Exception {
+        processor = new CustomInvokeHTTP();
+        final TestRunner runner = TestRunners.newTestRunner(processor);
+        runner.setProperty(CustomInvokeHTTP.PROP_URL, "http://sharepoint.example.com/sites/${site}/_api/web/lists");
+        runner.setProperty(CustomInvokeHTTP.PROP_ATTRIBUTES_TO_SEND, "sp-.*");
+        runner.setProperty("Accept", "application/json;odata=verbose");
+        runner.setProperty("X-RequestDigest", "${digest}");
+        runner.setProperty("X-Site", "${site:toUpper()}");
+        context = runner.getProcessContext();
+        session = runner.getProcessSessionFactory().createSession();
+        processor.setUpClient(context);
+
+        final Map<String, String> flowFileAttributes = new HashMap<>();
+        flowFileAttributes.put("site", "hr");
+        flowFileAttributes.put("digest", "0x8B1C2F3E4D5A6B7C8D9E0F1A2B3C4D5E6F7A8B9C,14 Oct 2019 10:00:00 -0000");
+        for (int i = 2; i < attributes; i++) {
+            flowFileAttributes.put((i % 2 == 0 ? "sp-" : "other-") + i, "value-" + i);
+        }
+        flowFile = new MockFlowFile(1L);
+        flowFile.putAttributes(flowFileAttributes);
+        url = HttpUrl.get("http://sharepoint.example.com/sites/hr/_api/web/lists");
+    }
+
+    @Benchmark
+    public Request configureRequest() {
+        return processor.configureRequest(context, session, flowFile, url, false);
+    }
+
+    @Benchmark
+    public Request.Builder setHeaderProperties() {
+        return processor.setHeaderProperties(context, new Request.Builder().url(url), flowFile);
+    }
+}
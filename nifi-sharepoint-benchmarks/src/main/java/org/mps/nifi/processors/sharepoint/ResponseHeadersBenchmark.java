@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.Headers;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning the headers of a typical SharePoint response into FlowFile attributes and into the lines of a request trace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseHeadersBenchmark {
+
+    private CustomInvokeHTTP processor;
+    private Response response;
+
+    @Setup
+    public void setup() {
+        processor = new CustomInvokeHTTP();
+        final Headers headers = new Headers.Builder()
+                .add("Cache-Control", "private, max-age=0")
+                .add("Content-Type", "application/json;odata=verbose;charset=utf-8")
+                .add("Expires", "Sun, 29 Sep 2019 10:00:00 GMT")
+                .add("Last-Modified", "Mon, 14 Oct 2019 10:00:00 GMT")
+                .add("ETag", "\"{4D5A6B7C-8D9E-0F1A-2B3C-4D5E6F7A8B9C},12\"")
+                .add("Server", "Microsoft-IIS/10.0")
+                .add("X-SharePointHealthScore", "0")
+                .add("X-SP-SERVERSTATE", "ReadOnly=0")
+                .add("DATASERVICEVERSION", "3.0")
+                .add("SPClientServiceRequestDuration", "27")
+                .add("SPRequestGuid", "8b1c2f3e-4d5a-6b7c-8d9e-0f1a2b3c4d5e")
+                .add("request-id", "8b1c2f3e-4d5a-6b7c-8d9e-0f1a2b3c4d5e")
+                .add("X-FRAME-OPTIONS", "SAMEORIGIN")
+                .add("Persistent-Auth", "true")
+                .add("X-Powered-By", "ASP.NET")
+                .add("MicrosoftSharePointTeamServices", "16.0.0.4327")
+                .add("X-Content-Type-Options", "nosniff")
+                .add("X-MS-InvokeApp", "1; RequireReadOnly")
+                .add("Set-Cookie", "WSS_FullScreenMode=false; path=/")
+                .add("Set-Cookie", "SPUsageId=8b1c2f3e-4d5a-6b7c-8d9e-0f1a2b3c4d5e; path=/")
+                .add("Date", "Mon, 14 Oct 2019 10:00:00 GMT")
+                .add("Content-Length", "12345")
+                .build();
+        response = new Response.Builder()
+                .request(new Request.Builder().url("http://sharepoint.example.com/sites/hr/_api/web/lists").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .headers(headers)
+                .build();
+    }
+
+    @Benchmark
+    public Map<String, String> convertAttributesFromHeaders() {
+        return processor.convertAttributesFromHeaders(response);
+    }
+
+    @Benchmark
+    public String appendTraceHeaders() {
+        return RequestTracer.appendHeaders(new StringBuilder(), response.headers()).toString();
+    }
+}
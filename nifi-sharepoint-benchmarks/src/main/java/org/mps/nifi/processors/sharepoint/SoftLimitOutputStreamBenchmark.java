@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures capturing a response body into the stream that backs 'Put Response Body In Attribute', the way the response
+ * is teed into it in 8 KB chunks, with a new stream per response and with a stream borrowed from the pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoftLimitOutputStreamBenchmark {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * The 'Max Length To Put In Attribute', 256 being its default.
+     */
+    @Param({"256", "1048576"})
+    public int limit;
+
+    @Param({"1024", "1048576"})
+    public int responseSize;
+
+    private byte[] chunk;
+    private CaptureBufferPool pool;
+
+    @Setup
+    public void setup() {
+        chunk = new byte[CHUNK_SIZE];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) ('a' + i % 26);
+        }
+        pool = new CaptureBufferPool(1);
+    }
+
+    @Benchmark
+    public int writeChunks() throws IOException {
+        return write(new SoftLimitBoundedByteArrayOutputStream(limit));
+    }
+
+    @Benchmark
+    public int writeChunksPooled() throws IOException {
+        final SoftLimitBoundedByteArrayOutputStream out = pool.acquire(limit);
+        try {
+            return write(out);
+        } finally {
+            pool.release(out);
+        }
+    }
+
+    private int write(final SoftLimitBoundedByteArrayOutputStream out) throws IOException {
+        for (int written = 0; written < responseSize; written += CHUNK_SIZE) {
+            out.write(chunk, 0, Math.min(CHUNK_SIZE, responseSize - written));
+        }
+        return out.size();
+    }
+}
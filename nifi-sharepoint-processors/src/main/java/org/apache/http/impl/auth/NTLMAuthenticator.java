@@ -1,25 +1,43 @@
 package org.apache.http.impl.auth;
 
 
+import okhttp3.Address;
 import okhttp3.Authenticator;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.Route;
 
 import java.io.IOException;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Answers NTLM challenges. The authenticator is shared by every call of the client, so it keeps no per-handshake
+ * fields: the step a handshake is at is read from the request that was challenged, which tells the Type 1 that opens a
+ * handshake apart from the Type 3 that closes it. Handshakes on different connections and routes therefore run
+ * independently, and only the per-route counters are shared.
+ */
 public class NTLMAuthenticator implements Authenticator {
+    private static final String SCHEME = "NTLM";
+    private static final String WORKSTATION = "android-device";
+
     final PublicNTLMEngineImpl engine = new PublicNTLMEngineImpl();
     private final String domain;
     private final String username;
     private final String password;
     private final String ntlmMsg1;
+    // the password hashes never change for this authenticator, so they are only computed once
+    private final PublicNTLMEngineImpl.CredentialHashes credentials;
+    private final ConcurrentMap<Address, RouteState> routeStates = new ConcurrentHashMap<>();
 
     public NTLMAuthenticator(String username, String password, String domain) {
         this.domain = domain;
         this.username = username;
         this.password = password;
+        this.credentials = new PublicNTLMEngineImpl.CredentialHashes(domain, username, password);
         String localNtlmMsg1 = null;
         try {
             localNtlmMsg1 = engine.generateType1Msg(null, null);
@@ -29,18 +47,142 @@ public class NTLMAuthenticator implements Authenticator {
         ntlmMsg1 = localNtlmMsg1;
     }
 
+    /**
+     * @return the Type 1 message that opens the handshake, usable to authenticate a fresh connection preemptively
+     */
+    public String getType1Message() {
+        return ntlmMsg1;
+    }
+
     @Override
     public Request authenticate(Route route, Response response) throws IOException {
-        final List<String> WWWAuthenticate = response.headers().values("WWW-Authenticate");
-        if (WWWAuthenticate.contains("NTLM")) {
-            return response.request().newBuilder().header("Authorization", "NTLM " + ntlmMsg1).build();
+        final String challenge = parseChallenge(response.headers("WWW-Authenticate"));
+        if (challenge == null) {
+            // the server does not offer NTLM, let the 401 through
+            return null;
+        }
+
+        final RouteState state = route == null ? null : stateOf(route.address());
+        final int sent = sentMessageType(response.request());
+        if (challenge.isEmpty()) {
+            if (sent != 0) {
+                // a bare challenge in answer to our own Type 1 or Type 3 means the credentials were rejected,
+                // starting over would only loop until OkHttp gives up on follow-ups
+                if (state != null) {
+                    state.failedHandshakes.incrementAndGet();
+                }
+                return null;
+            }
+            return withAuthorization(response, ntlmMsg1);
         }
-        String ntlmMsg3 = null;
+
+        if (sent == 3) {
+            return null;
+        }
+        final String ntlmMsg3;
         try {
-            ntlmMsg3 = engine.generateType3Msg(username, password, domain, "android-device", WWWAuthenticate.get(0).substring(5));
-        } catch (Exception e) {
-            e.printStackTrace();
+            ntlmMsg3 = engine.generateType3Msg(credentials, WORKSTATION, challenge);
+        } catch (NTLMEngineException e) {
+            throw new IOException("Unable to answer the NTLM challenge from " + response.request().url().host(), e);
         }
-        return response.request().newBuilder().header("Authorization", "NTLM " + ntlmMsg3).build();
+        if (state != null) {
+            state.handshakes.incrementAndGet();
+        }
+        return withAuthorization(response, ntlmMsg3);
+    }
+
+    /**
+     * @return the number of Type 3 messages sent to any address
+     */
+    public long getHandshakeCount() {
+        long count = 0;
+        for (RouteState state : routeStates.values()) {
+            count += state.handshakes.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of handshakes rejected by any server
+     */
+    public long getFailedHandshakeCount() {
+        long count = 0;
+        for (RouteState state : routeStates.values()) {
+            count += state.failedHandshakes.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of Type 3 messages sent to the given address
+     */
+    public long getHandshakeCount(Address address) {
+        final RouteState state = routeStates.get(address);
+        return state == null ? 0 : state.handshakes.get();
+    }
+
+    /**
+     * @return the number of handshakes with the given address the server rejected
+     */
+    public long getFailedHandshakeCount(Address address) {
+        final RouteState state = routeStates.get(address);
+        return state == null ? 0 : state.failedHandshakes.get();
+    }
+
+    private RouteState stateOf(Address address) {
+        final RouteState state = routeStates.get(address);
+        if (state != null) {
+            return state;
+        }
+        final RouteState created = new RouteState();
+        final RouteState existing = routeStates.putIfAbsent(address, created);
+        return existing == null ? created : existing;
+    }
+
+    private static Request withAuthorization(Response response, String message) {
+        return response.request().newBuilder().header("Authorization", SCHEME + " " + message).build();
+    }
+
+    /**
+     * Finds the NTLM challenge among the WWW-Authenticate headers. Servers commonly offer several schemes, either as
+     * separate headers or joined with commas, e.g. {@code Negotiate, NTLM}.
+     *
+     * @return the base64 token of the challenge, an empty string for a bare {@code NTLM} challenge, or null if NTLM is
+     * not offered
+     */
+    static String parseChallenge(List<String> headers) {
+        for (String header : headers) {
+            for (String challenge : header.split(",")) {
+                final String trimmed = challenge.trim();
+                final int space = trimmed.indexOf(' ');
+                final String scheme = space < 0 ? trimmed : trimmed.substring(0, space);
+                if (SCHEME.equalsIgnoreCase(scheme)) {
+                    return space < 0 ? "" : trimmed.substring(space + 1).trim();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the type of the NTLM message the request carried, or 0 if it carried none
+     */
+    static int sentMessageType(Request request) {
+        final String authorization = request.header("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, SCHEME + " ", 0, SCHEME.length() + 1)) {
+            return 0;
+        }
+        try {
+            final byte[] message = Base64.getMimeDecoder().decode(authorization.substring(SCHEME.length() + 1).trim());
+            // the message type follows the 8 byte NTLMSSP signature
+            return message.length > 8 ? message[8] : 0;
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private static final class RouteState {
+        private final AtomicLong handshakes = new AtomicLong();
+        private final AtomicLong failedHandshakes = new AtomicLong();
     }
 }
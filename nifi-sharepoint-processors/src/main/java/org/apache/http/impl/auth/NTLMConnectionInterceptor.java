@@ -0,0 +1,51 @@
+package org.apache.http.impl.auth;
+
+
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Network interceptor that makes NTLM connection-aware. NTLM authenticates the connection rather than the request, so
+ * requests sent over a connection that already completed the handshake go out without credentials. On a fresh
+ * connection the Type 1 message is sent preemptively, which saves the round trip of an unauthenticated request that
+ * is bound to be answered with a bare NTLM challenge.
+ */
+public class NTLMConnectionInterceptor implements Interceptor {
+    private final NTLMAuthenticator authenticator;
+    // weak keys, so that connections evicted from the pool can be collected
+    private final Set<Connection> authenticatedConnections = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+    public NTLMConnectionInterceptor(NTLMAuthenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Connection connection = chain.connection();
+        Request request = chain.request();
+        if (connection != null && request.header("Authorization") == null && !authenticatedConnections.contains(connection)) {
+            request = request.newBuilder().header("Authorization", "NTLM " + authenticator.getType1Message()).build();
+        }
+
+        final Response response = chain.proceed(request);
+        if (connection != null) {
+            if (response.code() == 401) {
+                authenticatedConnections.remove(connection);
+            } else if (request.header("Authorization") != null) {
+                authenticatedConnections.add(connection);
+            }
+        }
+        return response;
+    }
+
+    public boolean isAuthenticated(Connection connection) {
+        return authenticatedConnections.contains(connection);
+    }
+}
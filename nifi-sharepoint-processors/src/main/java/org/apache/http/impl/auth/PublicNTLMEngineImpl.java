@@ -9,6 +9,7 @@ import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.util.Arrays;
@@ -213,8 +214,77 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
         return rval;
     }
 
+    /**
+     * The hashes derived from a set of credentials. They depend only on the domain, user and password, so they are
+     * computed once and shared by every Type 3 message generated for those credentials. Instances are thread safe;
+     * a hash may be computed by more than one thread at first use, which yields the same value.
+     */
+    public static final class CredentialHashes {
+
+        final String domain;
+        final String user;
+        final String password;
+
+        private volatile byte[] lmHash;
+        private volatile byte[] ntlmHash;
+        private volatile byte[] lmv2Hash;
+        private volatile byte[] ntlmv2Hash;
+
+        public CredentialHashes(final String domain, final String user, final String password) {
+            // Use only the base domain name!
+            this.domain = convertDomain(domain);
+            this.user = user;
+            this.password = password;
+        }
+
+        /** Calculate and return the LMHash */
+        byte[] getLMHash()
+                throws NTLMEngineException {
+            byte[] hash = lmHash;
+            if (hash == null) {
+                hash = lmHash(password);
+                lmHash = hash;
+            }
+            return hash;
+        }
+
+        /** Calculate and return the NTLMHash */
+        byte[] getNTLMHash()
+                throws NTLMEngineException {
+            byte[] hash = ntlmHash;
+            if (hash == null) {
+                hash = ntlmHash(password);
+                ntlmHash = hash;
+            }
+            return hash;
+        }
+
+        /** Calculate the LMv2 hash */
+        byte[] getLMv2Hash()
+                throws NTLMEngineException {
+            byte[] hash = lmv2Hash;
+            if (hash == null) {
+                hash = lmv2Hash(domain, user, getNTLMHash());
+                lmv2Hash = hash;
+            }
+            return hash;
+        }
+
+        /** Calculate the NTLMv2 hash */
+        byte[] getNTLMv2Hash()
+                throws NTLMEngineException {
+            byte[] hash = ntlmv2Hash;
+            if (hash == null) {
+                hash = ntlmv2Hash(domain, user, getNTLMHash());
+                ntlmv2Hash = hash;
+            }
+            return hash;
+        }
+    }
+
     protected static class CipherGen {
 
+        protected final CredentialHashes credentials;
         protected final String domain;
         protected final String user;
         protected final String password;
@@ -246,14 +316,15 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
         protected byte[] ntlm2SessionResponseUserSessionKey = null;
         protected byte[] lanManagerSessionKey = null;
 
-        public CipherGen(final String domain, final String user, final String password,
+        public CipherGen(final CredentialHashes credentials,
                          final byte[] challenge, final String target, final byte[] targetInformation,
                          final byte[] clientChallenge, final byte[] clientChallenge2,
                          final byte[] secondaryKey, final byte[] timestamp) {
-            this.domain = domain;
+            this.credentials = credentials;
+            this.domain = credentials.domain;
             this.target = target;
-            this.user = user;
-            this.password = password;
+            this.user = credentials.user;
+            this.password = credentials.password;
             this.challenge = challenge;
             this.targetInformation = targetInformation;
             this.clientChallenge = clientChallenge;
@@ -262,11 +333,24 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
             this.timestamp = timestamp;
         }
 
+        public CipherGen(final String domain, final String user, final String password,
+                         final byte[] challenge, final String target, final byte[] targetInformation,
+                         final byte[] clientChallenge, final byte[] clientChallenge2,
+                         final byte[] secondaryKey, final byte[] timestamp) {
+            this(new CredentialHashes(domain, user, password), challenge, target, targetInformation,
+                    clientChallenge, clientChallenge2, secondaryKey, timestamp);
+        }
+
         public CipherGen(final String domain, final String user, final String password,
                          final byte[] challenge, final String target, final byte[] targetInformation) {
             this(domain, user, password, challenge, target, targetInformation, null, null, null, null);
         }
 
+        public CipherGen(final CredentialHashes credentials,
+                         final byte[] challenge, final String target, final byte[] targetInformation) {
+            this(credentials, challenge, target, targetInformation, null, null, null, null);
+        }
+
         /** Calculate and return client challenge */
         public byte[] getClientChallenge()
                 throws NTLMEngineException {
@@ -298,7 +382,7 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
         public byte[] getLMHash()
                 throws NTLMEngineException {
             if (lmHash == null) {
-                lmHash = lmHash(password);
+                lmHash = credentials.getLMHash();
             }
             return lmHash;
         }
@@ -316,7 +400,7 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
         public byte[] getNTLMHash()
                 throws NTLMEngineException {
             if (ntlmHash == null) {
-                ntlmHash = ntlmHash(password);
+                ntlmHash = credentials.getNTLMHash();
             }
             return ntlmHash;
         }
@@ -334,7 +418,7 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
         public byte[] getLMv2Hash()
                 throws NTLMEngineException {
             if (lmv2Hash == null) {
-                lmv2Hash = lmv2Hash(domain, user, getNTLMHash());
+                lmv2Hash = credentials.getLMv2Hash();
             }
             return lmv2Hash;
         }
@@ -343,7 +427,7 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
         public byte[] getNTLMv2Hash()
                 throws NTLMEngineException {
             if (ntlmv2Hash == null) {
-                ntlmv2Hash = ntlmv2Hash(domain, user, getNTLMHash());
+                ntlmv2Hash = credentials.getNTLMv2Hash();
             }
             return ntlmv2Hash;
         }
@@ -471,10 +555,9 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
                     final Key highKey = createDESKey(keyBytes, 7);
                     final byte[] truncatedResponse = new byte[8];
                     System.arraycopy(getLMResponse(), 0, truncatedResponse, 0, truncatedResponse.length);
-                    Cipher des = Cipher.getInstance("DES/ECB/NoPadding");
+                    final Cipher des = CryptoPrimitives.get().des();
                     des.init(Cipher.ENCRYPT_MODE, lowKey);
                     final byte[] lowPart = des.doFinal(truncatedResponse);
-                    des = Cipher.getInstance("DES/ECB/NoPadding");
                     des.init(Cipher.ENCRYPT_MODE, highKey);
                     final byte[] highPart = des.doFinal(truncatedResponse);
                     lanManagerSessionKey = new byte[16];
@@ -500,7 +583,7 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
     static byte[] RC4(final byte[] value, final byte[] key)
             throws NTLMEngineException {
         try {
-            final Cipher rc4 = Cipher.getInstance("RC4");
+            final Cipher rc4 = CryptoPrimitives.get().rc4();
             rc4.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "RC4"));
             return rc4.doFinal(value);
         } catch (final Exception e) {
@@ -519,7 +602,8 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
     static byte[] ntlm2SessionResponse(final byte[] ntlmHash, final byte[] challenge,
                                        final byte[] clientChallenge) throws NTLMEngineException {
         try {
-            final MessageDigest md5 = MessageDigest.getInstance("MD5");
+            final MessageDigest md5 = CryptoPrimitives.get().md5();
+            md5.reset();
             md5.update(challenge);
             md5.update(clientChallenge);
             final byte[] digest = md5.digest();
@@ -553,7 +637,7 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
             final Key lowKey = createDESKey(keyBytes, 0);
             final Key highKey = createDESKey(keyBytes, 7);
             final byte[] magicConstant = "KGS!@#$%".getBytes(Consts.ASCII);
-            final Cipher des = Cipher.getInstance("DES/ECB/NoPadding");
+            final Cipher des = CryptoPrimitives.get().des();
             des.init(Cipher.ENCRYPT_MODE, lowKey);
             final byte[] lowHash = des.doFinal(magicConstant);
             des.init(Cipher.ENCRYPT_MODE, highKey);
@@ -643,7 +727,7 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
             final Key lowKey = createDESKey(keyBytes, 0);
             final Key middleKey = createDESKey(keyBytes, 7);
             final Key highKey = createDESKey(keyBytes, 14);
-            final Cipher des = Cipher.getInstance("DES/ECB/NoPadding");
+            final Cipher des = CryptoPrimitives.get().des();
             des.init(Cipher.ENCRYPT_MODE, lowKey);
             final byte[] lowResponse = des.doFinal(challenge);
             des.init(Cipher.ENCRYPT_MODE, middleKey);
@@ -1131,16 +1215,24 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
         Type3Message(final String domain, final String host, final String user, final String password, final byte[] nonce,
                      final int type2Flags, final String target, final byte[] targetInformation)
                 throws NTLMEngineException {
+            this(new CredentialHashes(domain, user, password), host, nonce, type2Flags, target, targetInformation);
+        }
+
+        /** Constructor for credentials whose hashes are computed once and reused */
+        Type3Message(final CredentialHashes credentials, final String host, final byte[] nonce,
+                     final int type2Flags, final String target, final byte[] targetInformation)
+                throws NTLMEngineException {
             // Save the flags
             this.type2Flags = type2Flags;
 
             // Strip off domain name from the host!
             final String unqualifiedHost = convertHost(host);
-            // Use only the base domain name!
-            final String unqualifiedDomain = convertDomain(domain);
+            // The credentials hold the base domain name only
+            final String unqualifiedDomain = credentials.domain;
+            final String user = credentials.user;
 
             // Create a cipher generator class.  Use domain BEFORE it gets modified!
-            final CipherGen gen = new CipherGen(unqualifiedDomain, user, password, nonce, target, targetInformation);
+            final CipherGen gen = new CipherGen(credentials, nonce, target, targetInformation);
 
             // Use the new code to calculate the responses, including v2 if that
             // seems warranted.
@@ -1518,9 +1610,62 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
 
     }
 
+    /**
+     * Cipher and digest instances of the current thread. Looking up a JCA implementation walks the provider list and
+     * synchronizes, which contends badly when many threads generate messages at once, so every thread looks them up
+     * once and re-initializes them on each use. A primitive must therefore be finished with before the next use of the
+     * same primitive starts on that thread.
+     */
+    static final class CryptoPrimitives {
+        private static final ThreadLocal<CryptoPrimitives> CURRENT = new ThreadLocal<CryptoPrimitives>() {
+            @Override
+            protected CryptoPrimitives initialValue() {
+                return new CryptoPrimitives();
+            }
+        };
+
+        private Cipher des;
+        private Cipher rc4;
+        private MessageDigest md5;
+
+        private CryptoPrimitives() {
+        }
+
+        static CryptoPrimitives get() {
+            return CURRENT.get();
+        }
+
+        /** The DES/ECB/NoPadding cipher; it has to be initialized before use */
+        Cipher des() throws GeneralSecurityException {
+            if (des == null) {
+                des = Cipher.getInstance("DES/ECB/NoPadding");
+            }
+            return des;
+        }
+
+        /** The RC4 cipher; it has to be initialized before use */
+        Cipher rc4() throws GeneralSecurityException {
+            if (rc4 == null) {
+                rc4 = Cipher.getInstance("RC4");
+            }
+            return rc4;
+        }
+
+        /** The MD5 digest; it may hold state of a previous use until it is reset */
+        MessageDigest md5() throws GeneralSecurityException {
+            if (md5 == null) {
+                md5 = MessageDigest.getInstance("MD5");
+            }
+            return md5;
+        }
+    }
+
     /**
      * Cryptography support - HMACMD5 - algorithmically based on various web
      * resources by Karl Wright
+     *
+     * The digest is the MD5 instance of the current thread, so an HMACMD5 must be
+     * finished with before another one is created on the same thread.
      */
     static class HMACMD5 {
         protected byte[] ipad;
@@ -1530,7 +1675,8 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
         HMACMD5(final byte[] input) throws NTLMEngineException {
             byte[] key = input;
             try {
-                md5 = MessageDigest.getInstance("MD5");
+                md5 = CryptoPrimitives.get().md5();
+                md5.reset();
             } catch (final Exception ex) {
                 // Umm, the algorithm doesn't exist - throw an
                 // NTLMEngineException!
@@ -1611,4 +1757,21 @@ public class PublicNTLMEngineImpl implements NTLMEngine {
                 t2m.getTarget(),
                 t2m.getTargetInfo());
     }
+
+    /**
+     * Generates the Type 3 message for credentials whose password hashes are computed once and reused across messages.
+     */
+    public String generateType3Msg(
+            final CredentialHashes credentials,
+            final String workstation,
+            final String challenge) throws NTLMEngineException {
+        final Type2Message t2m = new Type2Message(challenge);
+        return new Type3Message(
+                credentials,
+                workstation,
+                t2m.getChallenge(),
+                t2m.getFlags(),
+                t2m.getTarget(),
+                t2m.getTargetInfo()).getResponse();
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+final class AttributeDecoder {
+    /*
+     * Decodes a captured response body straight from the capture buffer into a String of the decoded length. Each
+     * thread keeps its decoders and a char buffer to decode into, so a body costs one char copy into the String. When
+     * the capture was cut off at the byte limit the body may end in the middle of a multi-byte character; the incomplete
+     * sequence is dropped instead of turning into a replacement character. Malformed input elsewhere is replaced, as
+     * new String(byte[], Charset) does.
+     */
+
+    // bodies decoding to more chars than this get a buffer of their own rather than pinning a large one to the thread
+    static final int MAX_RETAINED_CHARS = 64 * 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private AttributeDecoder() {
+    }
+
+    static String decode(final SoftLimitBoundedByteArrayOutputStream capture, final Charset charset) {
+        return decode(capture.getBuffer(), capture.size(), charset, capture.isTruncated());
+    }
+
+    static String decode(final byte[] bytes, final int length, final Charset charset, final boolean truncated) {
+        if (length == 0) {
+            return "";
+        }
+        final State state = STATE.get();
+        final CharsetDecoder decoder = state.decoder(charset);
+        final CharBuffer out = state.chars((int) Math.ceil(length * (double) decoder.maxCharsPerByte()) + 1);
+        final ByteBuffer in = ByteBuffer.wrap(bytes, 0, length);
+
+        // a truncated body is not at the end of its input, so the decoder leaves a trailing partial character unread
+        CoderResult result = decoder.decode(in, out, !truncated);
+        if (result.isUnderflow() && truncated) {
+            result = decoder.decode(EMPTY, out, true);
+        }
+        if (result.isUnderflow()) {
+            result = decoder.flush(out);
+        }
+        if (!result.isUnderflow()) {
+            // maxCharsPerByte is an upper bound, so this is not expected; fall back rather than lose the body
+            return new String(bytes, 0, length, charset);
+        }
+        out.flip();
+        return out.toString();
+    }
+
+    private static final class State {
+        private final Map<Charset, CharsetDecoder> decoders = new HashMap<>();
+        private CharBuffer chars = CharBuffer.allocate(1024);
+
+        CharsetDecoder decoder(final Charset charset) {
+            CharsetDecoder decoder = decoders.get(charset);
+            if (decoder == null) {
+                decoder = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                decoders.put(charset, decoder);
+            }
+            return decoder.reset();
+        }
+
+        CharBuffer chars(final int capacity) {
+            if (capacity > MAX_RETAINED_CHARS) {
+                return CharBuffer.allocate(capacity);
+            }
+            if (chars.capacity() < capacity) {
+                chars = CharBuffer.allocate(Math.max(capacity, Math.min(chars.capacity() * 2, MAX_RETAINED_CHARS)));
+            }
+            chars.clear();
+            return chars;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+final class CallTimings extends EventListener {
+    /*
+     * Adds up where the time of a call went, from the events OkHttp reports for it. A call may look up several addresses,
+     * try several routes and make several requests, as NTLM does with its 401 legs, so the phases are summed over the
+     * call: DNS lookups, TCP connects, TLS handshakes, and the legs answered with 401 or 407. The time to first byte is
+     * that of the last request, from its body being sent to its response headers arriving. The timings travel with the
+     * request as a tag; the factory hands them to OkHttp as the call's listener. Events of a call are reported one after
+     * the other, and the call's response or failure is handed to the thread reading the timings, so no field needs to be
+     * volatile.
+     */
+
+    static final EventListener.Factory FACTORY = call -> {
+        final CallTimings timings = call.request().tag(CallTimings.class);
+        return timings == null ? EventListener.NONE : timings;
+    };
+
+    private long callStartNanos;
+    private long dnsStartNanos;
+    private long connectStartNanos;
+    private long secureConnectStartNanos;
+    private long legStartNanos;
+    private long requestSentNanos;
+    private boolean connected;
+
+    private int dnsLookups;
+    private long dnsNanos;
+    private int connections;
+    private long connectNanos;
+    private int tlsHandshakes;
+    private long tlsNanos;
+    private int authRoundTrips;
+    private long authNanos;
+    private long timeToFirstByteNanos = -1;
+    private long responseNanos = -1;
+    private Boolean connectionReused;
+
+    @Override
+    public void callStart(final Call call) {
+        callStartNanos = System.nanoTime();
+        // a request may be sent again in a new call
+        dnsLookups = 0;
+        dnsNanos = 0;
+        connections = 0;
+        connectNanos = 0;
+        tlsHandshakes = 0;
+        tlsNanos = 0;
+        authRoundTrips = 0;
+        authNanos = 0;
+        timeToFirstByteNanos = -1;
+        responseNanos = -1;
+        connectionReused = null;
+        connected = false;
+    }
+
+    @Override
+    public void dnsStart(final Call call, final String domainName) {
+        dnsStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(final Call call, final String domainName, final List<InetAddress> inetAddressList) {
+        dnsLookups++;
+        dnsNanos += System.nanoTime() - dnsStartNanos;
+    }
+
+    @Override
+    public void connectStart(final Call call, final InetSocketAddress inetSocketAddress, final Proxy proxy) {
+        connectStartNanos = System.nanoTime();
+        secureConnectStartNanos = 0;
+        connected = true;
+    }
+
+    @Override
+    public void secureConnectStart(final Call call) {
+        secureConnectStartNanos = System.nanoTime();
+        connectNanos += secureConnectStartNanos - connectStartNanos;
+    }
+
+    @Override
+    public void secureConnectEnd(final Call call, final Handshake handshake) {
+        tlsHandshakes++;
+        tlsNanos += System.nanoTime() - secureConnectStartNanos;
+    }
+
+    @Override
+    public void connectEnd(final Call call, final InetSocketAddress inetSocketAddress, final Proxy proxy, final Protocol protocol) {
+        connectionEnded();
+    }
+
+    @Override
+    public void connectFailed(final Call call, final InetSocketAddress inetSocketAddress, final Proxy proxy, final Protocol protocol,
+                              final IOException ioe) {
+        connectionEnded();
+    }
+
+    private void connectionEnded() {
+        connections++;
+        if (secureConnectStartNanos == 0) {
+            connectNanos += System.nanoTime() - connectStartNanos;
+        }
+    }
+
+    @Override
+    public void connectionAcquired(final Call call, final Connection connection) {
+        // a connection taken from the pool was acquired without connecting
+        connectionReused = !connected;
+        connected = false;
+    }
+
+    @Override
+    public void requestHeadersStart(final Call call) {
+        legStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void requestHeadersEnd(final Call call, final Request request) {
+        requestSentNanos = System.nanoTime();
+    }
+
+    @Override
+    public void requestBodyEnd(final Call call, final long byteCount) {
+        requestSentNanos = System.nanoTime();
+    }
+
+    @Override
+    public void responseHeadersStart(final Call call) {
+        timeToFirstByteNanos = System.nanoTime() - requestSentNanos;
+    }
+
+    @Override
+    public void responseHeadersEnd(final Call call, final Response response) {
+        final long now = System.nanoTime();
+        responseNanos = now - callStartNanos;
+        if (response.code() == 401 || response.code() == 407) {
+            authRoundTrips++;
+            authNanos += now - legStartNanos;
+        }
+    }
+
+    int getDnsLookups() {
+        return dnsLookups;
+    }
+
+    long getDnsNanos() {
+        return dnsNanos;
+    }
+
+    int getConnections() {
+        return connections;
+    }
+
+    long getConnectNanos() {
+        return connectNanos;
+    }
+
+    int getTlsHandshakes() {
+        return tlsHandshakes;
+    }
+
+    long getTlsNanos() {
+        return tlsNanos;
+    }
+
+    int getAuthRoundTrips() {
+        return authRoundTrips;
+    }
+
+    long getAuthNanos() {
+        return authNanos;
+    }
+
+    /**
+     * @return the time to first byte of the last request sent, or -1 when no response headers were received from the network
+     */
+    long getTimeToFirstByteNanos() {
+        return timeToFirstByteNanos;
+    }
+
+    /**
+     * @return whether the last request went over a pooled connection, or null when the call did not reach the network
+     */
+    Boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    /**
+     * @return the timings as FlowFile attributes, in milliseconds
+     */
+    Map<String, String> toAttributes() {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(CustomInvokeHTTP.TIMING_DNS, millis(dnsNanos));
+        attributes.put(CustomInvokeHTTP.TIMING_CONNECT, millis(connectNanos));
+        attributes.put(CustomInvokeHTTP.TIMING_TLS, millis(tlsNanos));
+        attributes.put(CustomInvokeHTTP.TIMING_AUTH, millis(authNanos));
+        attributes.put(CustomInvokeHTTP.TIMING_AUTH_ROUND_TRIPS, String.valueOf(authRoundTrips));
+        if (timeToFirstByteNanos >= 0) {
+            attributes.put(CustomInvokeHTTP.TIMING_TTFB, millis(timeToFirstByteNanos));
+        }
+        if (responseNanos >= 0) {
+            attributes.put(CustomInvokeHTTP.TIMING_RESPONSE, millis(responseNanos));
+        }
+        if (connectionReused != null) {
+            attributes.put(CustomInvokeHTTP.TIMING_CONNECTION_REUSED, connectionReused.toString());
+        }
+        return attributes;
+    }
+
+    private static String millis(final long nanos) {
+        return String.valueOf(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+}
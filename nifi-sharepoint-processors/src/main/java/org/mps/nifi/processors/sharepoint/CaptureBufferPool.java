@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CaptureBufferPool {
+    /*
+     * Streams capturing response bodies for attributes are borrowed from here and returned once the attribute is set,
+     * so that the buffers they grew are reused by the next FlowFile instead of being allocated again. At most maxIdle
+     * streams are kept; streams returned to a full pool are left to the garbage collector.
+     */
+
+    private final BlockingQueue<SoftLimitBoundedByteArrayOutputStream> idle;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CaptureBufferPool(final int maxIdle) {
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    public SoftLimitBoundedByteArrayOutputStream acquire(final int limit) {
+        final SoftLimitBoundedByteArrayOutputStream stream = idle.poll();
+        if (stream == null) {
+            misses.increment();
+            return new SoftLimitBoundedByteArrayOutputStream(limit);
+        }
+        hits.increment();
+        stream.reset(limit);
+        return stream;
+    }
+
+    public void release(final SoftLimitBoundedByteArrayOutputStream stream) {
+        idle.offer(stream);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
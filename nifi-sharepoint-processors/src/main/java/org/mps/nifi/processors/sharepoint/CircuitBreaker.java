@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.apache.nifi.logging.ComponentLog;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+final class CircuitBreaker {
+    /*
+     * Keeps a circuit per host so that requests to a host that stopped answering fail at once instead of each waiting for
+     * its timeouts. A closed circuit records the outcome of the last requests in a window, a request failing when no
+     * response was received or the status was 5xx, and being slow when it took longer than a threshold. Once enough
+     * requests were recorded and the share of failed or slow ones reaches its threshold, the circuit opens and requests
+     * are refused for a while. It is then half-open: a few trial requests are let through, and the circuit closes when
+     * all of them succeed in time or opens again as soon as one does not. Outcomes are recorded against the state the
+     * request was let through in, so that requests completing after the circuit changed state are not counted twice.
+     */
+
+    static final int MAX_CIRCUITS = 1_000;
+
+    // the permit of a request to a host beyond the bound, which goes unprotected
+    private static final long UNTRACKED = -1;
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    enum State {
+        CLOSED("closed"), OPEN("open"), HALF_OPEN("half-open");
+
+        private final String label;
+
+        State(final String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * Thrown instead of sending a request to a host whose circuit is open.
+     */
+    static final class OpenException extends IOException {
+        private final State state;
+
+        private OpenException(final String host, final State state) {
+            super("The circuit for " + host + " is " + state + ", the request was not sent");
+            this.state = state;
+        }
+
+        State getState() {
+            return state;
+        }
+    }
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final ComponentLog logger;
+    private final int windowSize;
+    private final int minimumRequests;
+    private final int failureRatePercent;
+    private final int slowRatePercent;
+    private final long slowThresholdNanos;
+    private final long openNanos;
+    private final int trialRequests;
+    private final LongAdder openings = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    CircuitBreaker(final ComponentLog logger, final int windowSize, final int minimumRequests, final int failureRatePercent,
+                   final int slowRatePercent, final long slowThresholdNanos, final long openNanos, final int trialRequests) {
+        this.logger = logger;
+        this.windowSize = windowSize;
+        this.minimumRequests = minimumRequests;
+        this.failureRatePercent = failureRatePercent;
+        this.slowRatePercent = slowRatePercent;
+        this.slowThresholdNanos = slowThresholdNanos;
+        this.openNanos = openNanos;
+        this.trialRequests = trialRequests;
+    }
+
+    static boolean isFailure(final int statusCode) {
+        return statusCode >= 500;
+    }
+
+    /**
+     * Lets a request to the host through unless its circuit is open.
+     *
+     * @return the permit to record the outcome of the request with
+     * @throws OpenException when the request is to fail at once
+     */
+    long acquire(final String host, final long nowNanos) throws OpenException {
+        final Circuit circuit = circuit(host);
+        return circuit == null ? UNTRACKED : circuit.acquire(nowNanos);
+    }
+
+    /**
+     * Records the outcome of a request that was let through with the given permit.
+     */
+    void record(final String host, final long permit, final boolean failed, final long startNanos, final long endNanos) {
+        if (permit != UNTRACKED) {
+            circuits.get(host).record(permit, failed, endNanos - startNanos, endNanos);
+        }
+    }
+
+    State getState(final String host) {
+        final Circuit circuit = circuits.get(host);
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    /**
+     * @return the number of circuits that are open or half-open
+     */
+    int getOpenCount() {
+        int open = 0;
+        for (final Circuit circuit : circuits.values()) {
+            if (circuit.getState() != State.CLOSED) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    long getOpenings() {
+        return openings.sum();
+    }
+
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private Circuit circuit(final String host) {
+        final Circuit circuit = circuits.get(host);
+        if (circuit != null || circuits.size() >= MAX_CIRCUITS) {
+            return circuit;
+        }
+        return circuits.computeIfAbsent(host, Circuit::new);
+    }
+
+    private final class Circuit {
+        private final String host;
+        // the outcomes of the last requests while closed, as FAILED and SLOW bits
+        private final byte[] outcomes = new byte[windowSize];
+        private int next;
+        private int recorded;
+        private int failed;
+        private int slow;
+        private State state = State.CLOSED;
+        // changes with the state, a permit being the generation the request was let through in
+        private long generation;
+        private long openedAtNanos;
+        private int trialsLetThrough;
+        private int trialsSucceeded;
+
+        private Circuit(final String host) {
+            this.host = host;
+        }
+
+        private synchronized State getState() {
+            return state;
+        }
+
+        private synchronized long acquire(final long nowNanos) throws OpenException {
+            if (state == State.OPEN) {
+                if (nowNanos - openedAtNanos < openNanos) {
+                    rejected.increment();
+                    throw new OpenException(host, state);
+                }
+                changeState(State.HALF_OPEN);
+                trialsLetThrough = 0;
+                trialsSucceeded = 0;
+                logger.info("The circuit for {} is half-open, letting {} trial requests through", new Object[]{host, trialRequests});
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialsLetThrough >= trialRequests) {
+                    rejected.increment();
+                    throw new OpenException(host, state);
+                }
+                trialsLetThrough++;
+            }
+            return generation;
+        }
+
+        private synchronized void record(final long permit, final boolean requestFailed, final long durationNanos, final long nowNanos) {
+            if (permit != generation) {
+                // let through before the circuit last changed state
+                return;
+            }
+            final boolean requestSlow = durationNanos > slowThresholdNanos;
+            if (state == State.HALF_OPEN) {
+                if (requestFailed || requestSlow) {
+                    open(nowNanos, "a trial request " + (requestFailed ? "failed" : "took longer than "
+                            + TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos) + " ms"));
+                } else if (++trialsSucceeded >= trialRequests) {
+                    changeState(State.CLOSED);
+                    logger.info("The circuit for {} is closed after {} trial requests succeeded", new Object[]{host, trialsSucceeded});
+                }
+                return;
+            }
+
+            if (recorded == outcomes.length) {
+                final byte oldest = outcomes[next];
+                failed -= oldest & FAILED;
+                slow -= (oldest & SLOW) >> 1;
+            } else {
+                recorded++;
+            }
+            outcomes[next] = (byte) ((requestFailed ? FAILED : 0) | (requestSlow ? SLOW : 0));
+            failed += requestFailed ? 1 : 0;
+            slow += requestSlow ? 1 : 0;
+            next = (next + 1) % outcomes.length;
+
+            if (recorded >= minimumRequests) {
+                if (failed * 100L >= failureRatePercent * (long) recorded) {
+                    open(nowNanos, failed + " of the last " + recorded + " requests failed");
+                } else if (slow * 100L >= slowRatePercent * (long) recorded) {
+                    open(nowNanos, slow + " of the last " + recorded + " requests took longer than "
+                            + TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos) + " ms");
+                }
+            }
+        }
+
+        private void open(final long nowNanos, final String reason) {
+            changeState(State.OPEN);
+            openedAtNanos = nowNanos;
+            openings.increment();
+            logger.warn("The circuit for {} opened because {}, requests to it will fail for {} ms",
+                    new Object[]{host, reason, TimeUnit.NANOSECONDS.toMillis(openNanos)});
+        }
+
+        private void changeState(final State newState) {
+            state = newState;
+            generation++;
+            next = 0;
+            recorded = 0;
+            failed = 0;
+            slow = 0;
+        }
+    }
+}
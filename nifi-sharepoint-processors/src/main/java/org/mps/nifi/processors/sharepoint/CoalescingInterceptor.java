@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+final class CoalescingInterceptor implements Interceptor {
+    /*
+     * Lets identical GET and HEAD requests share one call to the server. The first request for a method, URL and set of
+     * headers leads: while its call is in flight, identical requests made within the window after it started wait for it
+     * instead of calling the server themselves, and each gets a response of its own carrying the leader's status, headers
+     * and body. The leader buffers the body to share it, so only bodies up to a size limit are shared; when the body is
+     * larger or the leader's call fails, the waiting requests go to the server on their own.
+     */
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final long windowNanos;
+    private final long maxBodySize;
+    private final LongAdder coalesced = new LongAdder();
+
+    CoalescingInterceptor(final long windowNanos, final long maxBodySize) {
+        this.windowNanos = windowNanos;
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        if (!"GET".equals(request.method()) && !"HEAD".equals(request.method())) {
+            return chain.proceed(request);
+        }
+
+        final String key = request.method() + ' ' + MemoryCacheInterceptor.key(request);
+        final Flight flight = new Flight();
+        final Flight inFlight = flights.putIfAbsent(key, flight);
+        if (inFlight == null) {
+            return lead(chain, key, flight);
+        }
+        if (System.nanoTime() - inFlight.startNanos > windowNanos) {
+            // the call in flight started too long ago to answer for this request
+            return chain.proceed(request);
+        }
+
+        final SharedResponse shared = inFlight.await();
+        if (shared == null) {
+            return chain.proceed(request);
+        }
+        coalesced.increment();
+        return shared.toResponse(request);
+    }
+
+    /**
+     * @return the number of requests answered with the response of another
+     */
+    long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    private Response lead(final Chain chain, final String key, final Flight flight) throws IOException {
+        try {
+            final Response response = chain.proceed(chain.request());
+            try {
+                flight.result.complete(share(response));
+            } catch (final IOException e) {
+                // the body could not be read to be shared: the waiting requests go to the server, and this one gets its
+                // response as it is, the failure showing when its body is read
+                flight.result.complete(null);
+            } catch (final RuntimeException e) {
+                response.close();
+                throw e;
+            }
+            return response;
+        } finally {
+            // a failed call shares nothing
+            flight.result.complete(null);
+            flights.remove(key, flight);
+        }
+    }
+
+    private SharedResponse share(final Response response) throws IOException {
+        final ResponseBody body = response.body();
+        if (body == null || body.contentLength() > maxBodySize) {
+            return null;
+        }
+        // peeking buffers the body without consuming it, one byte more than the limit tells a body that is too large
+        final byte[] bytes = response.peekBody(maxBodySize + 1).bytes();
+        return bytes.length > maxBodySize ? null : new SharedResponse(response, bytes);
+    }
+
+    private static final class Flight {
+        private final long startNanos = System.nanoTime();
+        private final CompletableFuture<SharedResponse> result = new CompletableFuture<>();
+
+        private SharedResponse await() throws IOException {
+            try {
+                return result.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an identical request");
+            } catch (final ExecutionException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class SharedResponse {
+        private final Protocol protocol;
+        private final int code;
+        private final String message;
+        private final Headers headers;
+        private final MediaType contentType;
+        private final byte[] body;
+        private final long sentRequestAtMillis;
+        private final long receivedResponseAtMillis;
+
+        private SharedResponse(final Response response, final byte[] body) {
+            this.protocol = response.protocol();
+            this.code = response.code();
+            this.message = response.message();
+            this.headers = response.headers();
+            this.contentType = response.body().contentType();
+            this.body = body;
+            this.sentRequestAtMillis = response.sentRequestAtMillis();
+            this.receivedResponseAtMillis = response.receivedResponseAtMillis();
+        }
+
+        private Response toResponse(final Request request) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(protocol)
+                    .code(code)
+                    .message(message)
+                    .headers(headers)
+                    .body(ResponseBody.create(contentType, body))
+                    .sentRequestAtMillis(sentRequestAtMillis)
+                    .receivedResponseAtMillis(receivedResponseAtMillis)
+                    .build();
+        }
+    }
+}
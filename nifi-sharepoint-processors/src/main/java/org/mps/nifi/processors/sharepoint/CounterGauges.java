@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.apache.nifi.processor.ProcessSession;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CounterGauges {
+    /*
+     * NiFi counters can only be adjusted by a delta. To publish a point-in-time value (a gauge) the difference to the
+     * value published last is applied, which leaves the counter showing the current value.
+     */
+
+    private final ConcurrentMap<String, AtomicLong> published = new ConcurrentHashMap<>();
+
+    public void set(final ProcessSession session, final String name, final long value) {
+        final AtomicLong last = published.computeIfAbsent(name, key -> new AtomicLong());
+        final long delta = value - last.getAndSet(value);
+        if (delta != 0) {
+            session.adjustCounter(name, delta, true);
+        }
+    }
+}
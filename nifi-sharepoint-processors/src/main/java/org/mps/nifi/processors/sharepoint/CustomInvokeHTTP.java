@@ -20,17 +20,26 @@ import com.burgstaller.okhttp.AuthenticationCacheInterceptor;
 import com.burgstaller.okhttp.CachingAuthenticatorDecorator;
 import com.burgstaller.okhttp.digest.CachingAuthenticator;
 import com.burgstaller.okhttp.digest.DigestAuthenticator;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
 import okhttp3.*;
 import okio.BufferedSink;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.impl.auth.NTLMAuthenticator;
+import org.apache.http.impl.auth.NTLMConnectionInterceptor;
 import org.apache.nifi.annotation.behavior.*;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.PropertyValue;
 import org.apache.nifi.components.ValidationContext;
 import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.expression.AttributeExpression;
@@ -46,26 +55,33 @@ import org.apache.nifi.proxy.ProxySpec;
 import org.apache.nifi.ssl.SSLContextService;
 import org.apache.nifi.ssl.SSLContextService.ClientAuth;
 import org.apache.nifi.stream.io.StreamUtils;
-import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
 import javax.net.ssl.*;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.Proxy;
-import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 
 import static org.apache.commons.lang3.StringUtils.trimToEmpty;
@@ -83,7 +99,14 @@ import static org.apache.commons.lang3.StringUtils.trimToEmpty;
                 + "then the response body will be put to the 'invokehttp.response.body' attribute of the request FlowFile."),
         @WritesAttribute(attribute = "invokehttp.request.url", description = "The request URL"),
         @WritesAttribute(attribute = "invokehttp.tx.id", description = "The transaction ID that is returned after reading the response"),
+        @WritesAttribute(attribute = "invokehttp.protocol", description = "The protocol the response was received with, e.g. http/1.1 or h2"),
         @WritesAttribute(attribute = "invokehttp.remote.dn", description = "The DN of the remote server"),
+        @WritesAttribute(attribute = "invokehttp.timing.*", description = "When 'Add Timing Attributes' is true, the milliseconds the call "
+                + "spent in DNS lookups (dns), TCP connects (connect), TLS handshakes (tls) and requests answered with 401 or 407 (auth), "
+                + "the number of those (auth.roundtrips), the time to first byte (ttfb), the time until the response headers were "
+                + "received (response) and whether a pooled connection was used (connection.reused)"),
+        @WritesAttribute(attribute = "invokehttp.circuit.state", description = "When the request was not sent because the circuit breaker "
+                + "for its host is open, the state of the circuit: open or half-open"),
         @WritesAttribute(attribute = "invokehttp.java.exception.class", description = "The Java exception class raised when the processor fails"),
         @WritesAttribute(attribute = "invokehttp.java.exception.message", description = "The Java exception message raised when the processor fails"),
         @WritesAttribute(attribute = "user-defined", description = "If the 'Put Response Body In Attribute' property is set then whatever it is set to "
@@ -91,16 +114,26 @@ import static org.apache.commons.lang3.StringUtils.trimToEmpty;
 @DynamicProperty(name = "Header Name", value = "Attribute Expression Language", expressionLanguageScope = ExpressionLanguageScope.FLOWFILE_ATTRIBUTES,
         description = "Send request header with a key matching the Dynamic Property Key and a value created by evaluating "
                 + "the Attribute Expression Language set in the value of the Dynamic Property.")
-public class CustomInvokeHTTP extends AbstractProcessor {
+public class CustomInvokeHTTP extends AbstractSessionFactoryProcessor {
     // flowfile attribute keys returned after reading the response
     public final static String STATUS_CODE = "invokehttp.status.code";
     public final static String STATUS_MESSAGE = "invokehttp.status.message";
     public final static String RESPONSE_BODY = "invokehttp.response.body";
     public final static String REQUEST_URL = "invokehttp.request.url";
     public final static String TRANSACTION_ID = "invokehttp.tx.id";
+    public final static String PROTOCOL = "invokehttp.protocol";
     public final static String REMOTE_DN = "invokehttp.remote.dn";
     public final static String EXCEPTION_CLASS = "invokehttp.java.exception.class";
     public final static String EXCEPTION_MESSAGE = "invokehttp.java.exception.message";
+    public final static String TIMING_DNS = "invokehttp.timing.dns";
+    public final static String TIMING_CONNECT = "invokehttp.timing.connect";
+    public final static String TIMING_TLS = "invokehttp.timing.tls";
+    public final static String TIMING_AUTH = "invokehttp.timing.auth";
+    public final static String TIMING_AUTH_ROUND_TRIPS = "invokehttp.timing.auth.roundtrips";
+    public final static String TIMING_TTFB = "invokehttp.timing.ttfb";
+    public final static String TIMING_RESPONSE = "invokehttp.timing.response";
+    public final static String TIMING_CONNECTION_REUSED = "invokehttp.timing.connection.reused";
+    public final static String CIRCUIT_STATE = "invokehttp.circuit.state";
 
 
     public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
@@ -110,9 +143,10 @@ public class CustomInvokeHTTP extends AbstractProcessor {
     // This set includes our strings defined above as well as some standard flowfile
     // attributes.
     public static final Set<String> IGNORED_ATTRIBUTES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
-            STATUS_CODE, STATUS_MESSAGE, RESPONSE_BODY, REQUEST_URL, TRANSACTION_ID, REMOTE_DN,
+            STATUS_CODE, STATUS_MESSAGE, RESPONSE_BODY, REQUEST_URL, TRANSACTION_ID, PROTOCOL, REMOTE_DN,
             EXCEPTION_CLASS, EXCEPTION_MESSAGE,
-            "uuid", "filename", "path")));
+            TIMING_DNS, TIMING_CONNECT, TIMING_TLS, TIMING_AUTH, TIMING_AUTH_ROUND_TRIPS, TIMING_TTFB, TIMING_RESPONSE, TIMING_CONNECTION_REUSED,
+            CIRCUIT_STATE, "uuid", "filename", "path")));
 
     // Set of HTTP header names explicitly excluded from requests.
     private static final Map<String, String> excludedHeaders = new HashMap<>();
@@ -173,6 +207,23 @@ public class CustomInvokeHTTP extends AbstractProcessor {
             .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
             .build();
 
+    public static final AllowableValue HTTP_1_1_ONLY = new AllowableValue("http/1.1", "HTTP/1.1 Only",
+            "Every connection carries one request at a time.");
+    public static final AllowableValue HTTP_2_PREFERRED = new AllowableValue("h2", "HTTP/2 Preferred",
+            "HTTP/2 is negotiated with ALPN on TLS connections when both the server and the JVM support it, so that one connection "
+                    + "carries many concurrent requests. Otherwise, and for plain http URLs, HTTP/1.1 is used.");
+    public static final AllowableValue HTTP_2_PRIOR_KNOWLEDGE = new AllowableValue("h2_prior_knowledge", "HTTP/2 Prior Knowledge (h2c)",
+            "Cleartext HTTP/2 is spoken without negotiation. Only for plain http URLs of servers known to support it.");
+
+    public static final PropertyDescriptor PROP_HTTP_PROTOCOL = new PropertyDescriptor.Builder()
+            .name("HTTP Protocol Preference")
+            .description("The HTTP versions offered to the server. Note that servers such as IIS answer NTLM-authenticated requests "
+                    + "over HTTP/1.1 only, as NTLM authenticates the connection rather than the request.")
+            .required(true)
+            .allowableValues(HTTP_1_1_ONLY, HTTP_2_PREFERRED, HTTP_2_PRIOR_KNOWLEDGE)
+            .defaultValue(HTTP_2_PREFERRED.getValue())
+            .build();
+
     public static final PropertyDescriptor PROP_ATTRIBUTES_TO_SEND = new PropertyDescriptor.Builder()
             .name("Attributes to Send")
             .description("Regular expression that defines which attributes to send as HTTP headers in the request. "
@@ -367,6 +418,121 @@ public class CustomInvokeHTTP extends AbstractProcessor {
             .allowableValues("true", "false")
             .build();
 
+    public static final PropertyDescriptor PROP_RETRY_MAX_ATTEMPTS = new PropertyDescriptor.Builder()
+            .name("Retry Max Attempts")
+            .description("The number of times a request is sent before its FlowFile is routed on a retryable status code or I/O failure. "
+                    + "The request is sent again after a backoff; only the outcome of the last attempt reaches the relationships. "
+                    + "With Asynchronous Responses no task is held during the backoff. Otherwise the task waits for it, which can "
+                    + "take as long as Retry Max Backoff or the Retry-After a server asks for. 1 disables retries.")
+            .required(true)
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_RETRY_INITIAL_BACKOFF = new PropertyDescriptor.Builder()
+            .name("Retry Initial Backoff")
+            .description("How long to wait before the first retry. The backoff doubles with each further retry, and a random part of "
+                    + "up to half of it is taken off so that requests failing together are not sent again together.")
+            .required(true)
+            .defaultValue("500 millis")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_RETRY_MAX_BACKOFF = new PropertyDescriptor.Builder()
+            .name("Retry Max Backoff")
+            .description("The longest wait between two attempts, also bounding the wait asked for by a Retry-After header.")
+            .required(true)
+            .defaultValue("30 secs")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_RETRY_STATUS_CODES = new PropertyDescriptor.Builder()
+            .name("Retry Status Codes")
+            .description("A comma separated list of the status codes on which a request is sent again.")
+            .required(false)
+            .defaultValue("429,502,503,504")
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile("\\s*\\d{3}\\s*(,\\s*\\d{3}\\s*)*")))
+            .build();
+
+    public static final PropertyDescriptor PROP_RETRY_NON_IDEMPOTENT = new PropertyDescriptor.Builder()
+            .name("Retry Non-Idempotent Requests")
+            .description("When false, requests whose method is not idempotent, such as POST and PATCH, are only sent again when the "
+                    + "connection failed before the request was sent, since the server may already have carried them out.")
+            .required(true)
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .build();
+
+    public static final PropertyDescriptor PROP_CIRCUIT_BREAKER = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker")
+            .description("When true, requests to a host that keeps failing or answering slowly are not sent for a while: their FlowFiles "
+                    + "are penalized and routed to Failure at once with the 'invokehttp.circuit.state' attribute, instead of each waiting "
+                    + "for the connect and read timeouts. A request fails when no response is received or the status code is 5xx. "
+                    + "Circuits opening and closing are logged, and the number of open circuits is published as a counter.")
+            .required(true)
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .build();
+
+    public static final PropertyDescriptor PROP_CIRCUIT_WINDOW_SIZE = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker Window Size")
+            .description("The number of most recent requests to a host the failure and slow request rates are taken over.")
+            .required(true)
+            .defaultValue("20")
+            .addValidator(StandardValidators.createLongValidator(1, 1_000, true))
+            .build();
+
+    public static final PropertyDescriptor PROP_CIRCUIT_MINIMUM_REQUESTS = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker Minimum Requests")
+            .description("The number of requests to a host that must be recorded before its circuit may open.")
+            .required(true)
+            .defaultValue("10")
+            .addValidator(StandardValidators.createLongValidator(1, 1_000, true))
+            .build();
+
+    public static final PropertyDescriptor PROP_CIRCUIT_FAILURE_RATE = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker Failure Rate")
+            .description("The percentage of failed requests in the window at which the circuit opens.")
+            .required(true)
+            .defaultValue("50")
+            .addValidator(StandardValidators.createLongValidator(1, 100, true))
+            .build();
+
+    public static final PropertyDescriptor PROP_CIRCUIT_SLOW_RATE = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker Slow Request Rate")
+            .description("The percentage of requests in the window taking longer than 'Circuit Breaker Slow Request Threshold' "
+                    + "at which the circuit opens.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.createLongValidator(1, 100, true))
+            .build();
+
+    public static final PropertyDescriptor PROP_CIRCUIT_SLOW_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker Slow Request Threshold")
+            .description("Requests taking longer than this until their response headers are received count as slow.")
+            .required(true)
+            .defaultValue("10 secs")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_CIRCUIT_OPEN_DURATION = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker Open Duration")
+            .description("How long requests to a host are not sent once its circuit opened. Trial requests are then let through, "
+                    + "closing the circuit when they all succeed and opening it again otherwise.")
+            .required(true)
+            .defaultValue("30 secs")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_CIRCUIT_TRIAL_REQUESTS = new PropertyDescriptor.Builder()
+            .name("Circuit Breaker Trial Requests")
+            .description("The number of requests let through to a host whose open duration elapsed, all of which must succeed "
+                    + "for its circuit to close.")
+            .required(true)
+            .defaultValue("3")
+            .addValidator(StandardValidators.createLongValidator(1, 100, true))
+            .build();
+
     public static final PropertyDescriptor PROP_USE_ETAG = new PropertyDescriptor.Builder()
             .name("use-etag")
             .description("Enable HTTP entity tag (ETag) support for HTTP requests.")
@@ -385,6 +551,235 @@ public class CustomInvokeHTTP extends AbstractProcessor {
             .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor PROP_ETAG_MEMORY_CACHE_SIZE = new PropertyDescriptor.Builder()
+            .name("In-Memory ETag Cache Size")
+            .description("The maximum size of an in-memory cache of small GET responses consulted before the ETag cache on disk, so "
+                    + "that frequently polled resources are answered or revalidated without reading the disk. Least recently used "
+                    + "responses are evicted first. When not set, only the cache on disk is used.")
+            .required(false)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_ETAG_MEMORY_CACHE_MAX_ENTRY_SIZE = new PropertyDescriptor.Builder()
+            .name("In-Memory ETag Cache Max Entry Size")
+            .description("Responses with a larger body are only cached on disk.")
+            .required(true)
+            .defaultValue("64 KB")
+            .addValidator(StandardValidators.createDataSizeBoundsValidator(1, Integer.MAX_VALUE))
+            .build();
+
+    public static final PropertyDescriptor PROP_ETAG_CACHE_DIRECTORY = new PropertyDescriptor.Builder()
+            .name("ETag Cache Directory")
+            .description("The directory holding ETag caches, which then survive restarts of the processor and of NiFi, so that the "
+                    + "first request after a restart can already be revalidated. Each cache is a subdirectory named by "
+                    + "'ETag Cache Name'. When not set, the cache is kept in a temporary directory that is deleted when the processor stops.")
+            .required(false)
+            .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
+            .addValidator(StandardValidators.createDirectoryExistsValidator(true, true))
+            .build();
+
+    public static final PropertyDescriptor PROP_ETAG_CACHE_NAME = new PropertyDescriptor.Builder()
+            .name("ETag Cache Name")
+            .description("The name of the cache within the 'ETag Cache Directory'. Processors using the same directory and name share "
+                    + "one cache, sized by whichever of them starts first. Defaults to the identifier of the processor.")
+            .required(false)
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile("[\\w.-]+")))
+            .build();
+
+    public static final PropertyDescriptor PROP_ETAG_CACHE_RETENTION = new PropertyDescriptor.Builder()
+            .name("Unused ETag Cache Retention")
+            .description("Caches in the 'ETag Cache Directory' that have not been used for this long, such as those of removed processors, "
+                    + "are deleted when the processor is started.")
+            .required(true)
+            .defaultValue("7 days")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_COALESCE_REQUESTS = new PropertyDescriptor.Builder()
+            .name("Coalesce Identical Requests")
+            .description("When true, GET and HEAD requests with the same URL and headers that are made while an identical request is in "
+                    + "flight wait for its response instead of calling the server, and each FlowFile gets its own response built from "
+                    + "the shared one. Only responses up to 'Coalescing Max Body Size' are shared. The content of every response "
+                    + "FlowFile is still written to the content repository on its own.")
+            .required(true)
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .build();
+
+    public static final PropertyDescriptor PROP_COALESCING_WINDOW = new PropertyDescriptor.Builder()
+            .name("Coalescing Window")
+            .description("How long after an identical request started a request may still wait for its response, which bounds how "
+                    + "old a shared response can be.")
+            .required(true)
+            .defaultValue("1 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_COALESCING_MAX_BODY_SIZE = new PropertyDescriptor.Builder()
+            .name("Coalescing Max Body Size")
+            .description("Responses with a larger body are not shared, the requests waiting for them are sent on their own. "
+                    + "Shared bodies are held in memory while the requests waiting for them are answered.")
+            .required(true)
+            .defaultValue("1 MB")
+            .addValidator(StandardValidators.createDataSizeBoundsValidator(0, Integer.MAX_VALUE - 1))
+            .build();
+
+    public static final PropertyDescriptor PROP_BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch Size")
+            .description("The maximum number of FlowFiles to take from the incoming queue on each invocation. When more than one FlowFile "
+                    + "is available the requests are dispatched concurrently and every response is routed in a single session commit, "
+                    + "so one task can keep many requests in flight. The number of requests actually in flight is bounded by the "
+                    + "'Max Concurrent Requests' properties, a batch routing each response as it arrives and keeping no more of "
+                    + "them waiting than 'Max Concurrent Requests Per Host'. Request bodies are buffered in memory while a batch is dispatched, up to "
+                    + "'Batch Max Buffer Size'.")
+            .required(true)
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_BATCH_MAX_BUFFER_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch Max Buffer Size")
+            .description("The most request body content buffered in memory for one batch. The FlowFiles whose content does not fit in "
+                    + "what is left of it are not dispatched with the batch but sent one at a time afterwards, streaming their content.")
+            .required(true)
+            .defaultValue("10 MB")
+            .addValidator(StandardValidators.createDataSizeBoundsValidator(0, Integer.MAX_VALUE - 8))
+            .build();
+
+    public static final PropertyDescriptor PROP_ASYNCHRONOUS = new PropertyDescriptor.Builder()
+            .name("Asynchronous Responses")
+            .description("When true, the processor's tasks never wait for the server. Up to 'Batch Size' FlowFiles are dispatched per task "
+                    + "and each response is routed and streamed into the content repository on an OkHttp dispatcher thread as it "
+                    + "arrives. Completed FlowFiles are committed by the processor's tasks, or by the dispatcher thread when no task is "
+                    + "running. Long downloads then hold a dispatcher thread rather than a scheduler thread; how many run at once is "
+                    + "bounded by the 'Max Concurrent Requests' properties.")
+            .required(true)
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_OUTSTANDING_REQUESTS = new PropertyDescriptor.Builder()
+            .name("Max Outstanding Requests")
+            .description("With 'Asynchronous Responses', the maximum number of FlowFiles taken from the queue whose requests are in "
+                    + "flight or whose responses are not committed yet. Further FlowFiles are left in the queue until one completes.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_IDLE_CONNECTIONS = new PropertyDescriptor.Builder()
+            .name("Max Idle Connections")
+            .description("The maximum number of idle connections kept open in the connection pool. Connections that are kept open "
+                    + "avoid repeating the TCP, TLS and NTLM handshakes for subsequent requests to the same host.")
+            .required(true)
+            .defaultValue("5")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_KEEP_ALIVE_DURATION = new PropertyDescriptor.Builder()
+            .name("Connection Keep-Alive Duration")
+            .description("How long an idle connection is kept in the connection pool before it is closed.")
+            .required(true)
+            .defaultValue("5 mins")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_REQUESTS = new PropertyDescriptor.Builder()
+            .name("Max Concurrent Requests")
+            .description("The maximum number of requests dispatched concurrently by this processor. Further requests are queued "
+                    + "until a running request completes.")
+            .required(true)
+            .defaultValue("64")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_REQUESTS_PER_HOST = new PropertyDescriptor.Builder()
+            .name("Max Concurrent Requests Per Host")
+            .description("The maximum number of requests dispatched concurrently to a single host. Further requests to that host are "
+                    + "queued until a running request completes.")
+            .required(true)
+            .defaultValue("5")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final AllowableValue TRACE_OFF = new AllowableValue("off", "Off", "No requests are traced.");
+    public static final AllowableValue TRACE_SAMPLED = new AllowableValue("sampled", "Sampled",
+            "One request in every 'Trace Sample Rate' is traced.");
+    public static final AllowableValue TRACE_SLOW_OR_FAILED = new AllowableValue("slow-or-failed", "Slow or Failed",
+            "Requests that fail, get a 4xx or 5xx status, or take longer than 'Trace Slow Request Threshold' are traced.");
+
+    public static final PropertyDescriptor PROP_TRACE_MODE = new PropertyDescriptor.Builder()
+            .name("Request Tracing")
+            .description("Which requests to trace. A trace holds the request and response headers, with credentials and cookies left "
+                    + "out, the status and how long the request took. The most recent traces are logged when the processor is "
+                    + "stopped, and while it runs at the 'Trace Log Interval' when one is set. Every trace is logged as it is made "
+                    + "when debug logging is enabled.")
+            .required(true)
+            .defaultValue(TRACE_OFF.getValue())
+            .allowableValues(TRACE_OFF, TRACE_SAMPLED, TRACE_SLOW_OR_FAILED)
+            .build();
+
+    public static final PropertyDescriptor PROP_TRACE_SAMPLE_RATE = new PropertyDescriptor.Builder()
+            .name("Trace Sample Rate")
+            .description("With 'Sampled' tracing, one request in this many is traced.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_TRACE_SLOW_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("Trace Slow Request Threshold")
+            .description("With 'Slow or Failed' tracing, requests taking longer than this are traced.")
+            .required(true)
+            .defaultValue("5 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_TRACE_BUFFER_SIZE = new PropertyDescriptor.Builder()
+            .name("Trace Buffer Size")
+            .description("The number of most recent traces kept in memory to be logged when the processor is stopped.")
+            .required(true)
+            .defaultValue("100")
+            .addValidator(StandardValidators.createLongValidator(1, 10_000, true))
+            .build();
+
+    public static final PropertyDescriptor PROP_TRACE_LOG_INTERVAL = new PropertyDescriptor.Builder()
+            .name("Trace Log Interval")
+            .description("How often the traces made since the previous ones were logged are logged while the processor runs, so that "
+                    + "recent requests can be inspected without stopping it. When not set, traces are only logged when the "
+                    + "processor is stopped.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_METRICS_SUMMARY_INTERVAL = new PropertyDescriptor.Builder()
+            .name("Request Metrics Summary Interval")
+            .description("How often the latency of the requests completed since the previous summary is logged and published as "
+                    + "counters, by host, method and status class. Bytes sent and received and the number of requests in flight "
+                    + "are published as counters on every invocation.")
+            .required(true)
+            .defaultValue("5 mins")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_TIMING_ATTRIBUTES = new PropertyDescriptor.Builder()
+            .name("Add Timing Attributes")
+            .description("When true, where the time of each call went is written to the 'invokehttp.timing.*' attributes of the request "
+                    + "and response FlowFiles: DNS lookups, TCP connects, TLS handshakes, authentication round trips, time to first "
+                    + "byte and connection reuse. These phases are summarized with the request latency either way.")
+            .required(true)
+            .defaultValue("false")
+            .allowableValues("true", "false")
+            .build();
+
+    public static final PropertyDescriptor PROP_HTTP_CLIENT_PROVIDER = new PropertyDescriptor.Builder()
+            .name("HTTP Client Provider")
+            .description("A shared HTTP client whose connection pool and dispatcher are used instead of building them for this processor. "
+                    + "When set, the connection pool and concurrent request properties of this processor are ignored.")
+            .required(false)
+            .identifiesControllerService(HttpClientProvider.class)
+            .build();
+
 
     private static final ProxySpec[] PROXY_SPECS = {ProxySpec.HTTP_AUTH, ProxySpec.SOCKS};
     public static final PropertyDescriptor PROXY_CONFIGURATION_SERVICE
@@ -398,6 +793,7 @@ public class CustomInvokeHTTP extends AbstractProcessor {
             PROP_READ_TIMEOUT,
             PROP_DATE_HEADER,
             PROP_FOLLOW_REDIRECTS,
+            PROP_HTTP_PROTOCOL,
             PROP_ATTRIBUTES_TO_SEND,
             PROP_BASIC_AUTH_USERNAME,
             PROP_BASIC_AUTH_PASSWORD,
@@ -418,8 +814,45 @@ public class CustomInvokeHTTP extends AbstractProcessor {
             PROP_SEND_BODY,
             PROP_USE_CHUNKED_ENCODING,
             PROP_PENALIZE_NO_RETRY,
+            PROP_RETRY_MAX_ATTEMPTS,
+            PROP_RETRY_INITIAL_BACKOFF,
+            PROP_RETRY_MAX_BACKOFF,
+            PROP_RETRY_STATUS_CODES,
+            PROP_RETRY_NON_IDEMPOTENT,
+            PROP_CIRCUIT_BREAKER,
+            PROP_CIRCUIT_WINDOW_SIZE,
+            PROP_CIRCUIT_MINIMUM_REQUESTS,
+            PROP_CIRCUIT_FAILURE_RATE,
+            PROP_CIRCUIT_SLOW_RATE,
+            PROP_CIRCUIT_SLOW_THRESHOLD,
+            PROP_CIRCUIT_OPEN_DURATION,
+            PROP_CIRCUIT_TRIAL_REQUESTS,
             PROP_USE_ETAG,
-            PROP_ETAG_MAX_CACHE_SIZE));
+            PROP_ETAG_MAX_CACHE_SIZE,
+            PROP_ETAG_MEMORY_CACHE_SIZE,
+            PROP_ETAG_MEMORY_CACHE_MAX_ENTRY_SIZE,
+            PROP_ETAG_CACHE_DIRECTORY,
+            PROP_ETAG_CACHE_NAME,
+            PROP_ETAG_CACHE_RETENTION,
+            PROP_COALESCE_REQUESTS,
+            PROP_COALESCING_WINDOW,
+            PROP_COALESCING_MAX_BODY_SIZE,
+            PROP_BATCH_SIZE,
+            PROP_BATCH_MAX_BUFFER_SIZE,
+            PROP_ASYNCHRONOUS,
+            PROP_MAX_OUTSTANDING_REQUESTS,
+            PROP_HTTP_CLIENT_PROVIDER,
+            PROP_MAX_IDLE_CONNECTIONS,
+            PROP_KEEP_ALIVE_DURATION,
+            PROP_MAX_REQUESTS,
+            PROP_MAX_REQUESTS_PER_HOST,
+            PROP_TRACE_MODE,
+            PROP_TRACE_SAMPLE_RATE,
+            PROP_TRACE_SLOW_THRESHOLD,
+            PROP_TRACE_BUFFER_SIZE,
+            PROP_TRACE_LOG_INTERVAL,
+            PROP_METRICS_SUMMARY_INTERVAL,
+            PROP_TIMING_ATTRIBUTES));
 
     // relationships
     public static final Relationship REL_SUCCESS_REQ = new Relationship.Builder()
@@ -457,15 +890,19 @@ public class CustomInvokeHTTP extends AbstractProcessor {
 
     private volatile Set<String> dynamicPropertyNames = new HashSet<>();
 
-    /**
-     * Pattern used to compute RFC 2616 Dates (#sec3.3.1). This format is used by the HTTP Date header and is optionally sent by the processor. This date is effectively an RFC 822/1123 date
-     * string, but HTTP requires it to be in GMT (preferring the literal 'GMT' string).
-     */
-    private static final String RFC_1123 = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
-    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern(RFC_1123).withLocale(Locale.US).withZone(DateTimeZone.UTC);
-
     private final AtomicReference<OkHttpClient> okHttpClientAtomicReference = new AtomicReference<>();
 
+    private final CounterGauges clientGauges = new CounterGauges();
+
+    // sends requests again once their backoff elapsed, set while retries are enabled
+    private volatile ScheduledExecutorService retryScheduler;
+    private final LongAdder retriedRequests = new LongAdder();
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    // URLs resolved from Expression Language are parsed once for up to this many distinct values
+    static final int MAX_PARSED_URLS = 1_000;
+
     protected void init(ProcessorInitializationContext context) {
         excludedHeaders.put("Trusted Hostname", "HTTP request header '{}' excluded. " +
                 "Update processor to use the SSLContextService instead. " +
@@ -495,7 +932,23 @@ public class CustomInvokeHTTP extends AbstractProcessor {
     }
 
     private volatile Pattern regexAttributesToSend = null;
-    private volatile boolean useChunked = false;
+    private volatile Settings settings;
+    private volatile CaptureBufferPool captureBuffers;
+    private volatile Cache etagCache;
+    private volatile MemoryCacheInterceptor etagMemoryCache;
+    private volatile CoalescingInterceptor coalescingInterceptor;
+    private volatile RequestTracer requestTracer;
+    private volatile RequestMetrics requestMetrics;
+    private volatile CircuitBreaker circuitBreaker;
+    // set when the ETag cache is kept in a temporary directory, which is deleted on stop
+    private volatile File temporaryETagCacheDir;
+
+    // asynchronous mode: exchanges are outstanding from dispatch until their session is committed or rolled back
+    private final Set<Exchange> inFlightExchanges = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<Exchange> completedExchanges = new LinkedBlockingQueue<>();
+    private final AtomicInteger activeTriggers = new AtomicInteger();
+    private volatile Semaphore outstandingPermits;
+    private volatile boolean stopping;
 
     @Override
     public void onPropertyModified(final PropertyDescriptor descriptor, final String oldValue, final String newValue) {
@@ -552,6 +1005,23 @@ public class CustomInvokeHTTP extends AbstractProcessor {
             results.add(new ValidationResult.Builder().subject("SSL Context Service").valid(false).explanation("If Proxy Type is HTTPS, SSL Context Service must be set").build());
         }
 
+        if (HTTP_2_PRIOR_KNOWLEDGE.getValue().equals(validationContext.getProperty(PROP_HTTP_PROTOCOL).getValue())
+                && validationContext.getProperty(PROP_SSL_CONTEXT_SERVICE).isSet()) {
+            results.add(new ValidationResult.Builder().subject(PROP_HTTP_PROTOCOL.getDisplayName()).valid(false)
+                    .explanation(HTTP_2_PRIOR_KNOWLEDGE.getDisplayName() + " cannot be used with TLS, HTTP/2 is negotiated there").build());
+        }
+
+        if (validationContext.getProperty(PROP_RETRY_INITIAL_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS)
+                > validationContext.getProperty(PROP_RETRY_MAX_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS)) {
+            results.add(new ValidationResult.Builder().subject(PROP_RETRY_INITIAL_BACKOFF.getDisplayName()).valid(false)
+                    .explanation(PROP_RETRY_INITIAL_BACKOFF.getDisplayName() + " cannot be longer than " + PROP_RETRY_MAX_BACKOFF.getDisplayName()).build());
+        }
+
+        if (validationContext.getProperty(PROP_CIRCUIT_MINIMUM_REQUESTS).asInteger() > validationContext.getProperty(PROP_CIRCUIT_WINDOW_SIZE).asInteger()) {
+            results.add(new ValidationResult.Builder().subject(PROP_CIRCUIT_MINIMUM_REQUESTS.getDisplayName()).valid(false)
+                    .explanation(PROP_CIRCUIT_MINIMUM_REQUESTS.getDisplayName() + " cannot be more than " + PROP_CIRCUIT_WINDOW_SIZE.getDisplayName()).build());
+        }
+
         ProxyConfiguration.validateProxySpec(validationContext, results, PROXY_SPECS);
 
         for (String headerKey : validationContext.getProperties().values()) {
@@ -568,8 +1038,13 @@ public class CustomInvokeHTTP extends AbstractProcessor {
     @OnScheduled
     public void setUpClient(final ProcessContext context) throws IOException, UnrecoverableKeyException, CertificateException, NoSuchAlgorithmException, KeyStoreException, KeyManagementException {
         okHttpClientAtomicReference.set(null);
+        // a cache left open by a schedule that failed to start
+        closeETagCache();
 
-        OkHttpClient.Builder okHttpClientBuilder = new OkHttpClient().newBuilder();
+        // Derive from the shared client if a provider is set, so that its connection pool and dispatcher are reused
+        final HttpClientProvider clientProvider = context.getProperty(PROP_HTTP_CLIENT_PROVIDER).asControllerService(HttpClientProvider.class);
+        OkHttpClient.Builder okHttpClientBuilder = clientProvider == null ? new OkHttpClient().newBuilder()
+                : clientProvider.getHttpClient(getConnectionIdentity(context)).newBuilder();
 
         // Add a proxy if set
         boolean isHttpsProxy = HTTPS.equals(context.getProperty(PROP_PROXY_TYPE).evaluateAttributeExpressions().getValue());
@@ -598,13 +1073,68 @@ public class CustomInvokeHTTP extends AbstractProcessor {
             }
         }
 
+        requestMetrics = new RequestMetrics(context.getProperty(PROP_METRICS_SUMMARY_INTERVAL).asTimePeriod(TimeUnit.NANOSECONDS));
+        if (context.getProperty(PROP_CIRCUIT_BREAKER).asBoolean()) {
+            circuitBreaker = new CircuitBreaker(getLogger(), context.getProperty(PROP_CIRCUIT_WINDOW_SIZE).asInteger(),
+                    context.getProperty(PROP_CIRCUIT_MINIMUM_REQUESTS).asInteger(),
+                    context.getProperty(PROP_CIRCUIT_FAILURE_RATE).asInteger(),
+                    context.getProperty(PROP_CIRCUIT_SLOW_RATE).asInteger(),
+                    context.getProperty(PROP_CIRCUIT_SLOW_THRESHOLD).asTimePeriod(TimeUnit.NANOSECONDS),
+                    context.getProperty(PROP_CIRCUIT_OPEN_DURATION).asTimePeriod(TimeUnit.NANOSECONDS),
+                    context.getProperty(PROP_CIRCUIT_TRIAL_REQUESTS).asInteger());
+        } else {
+            circuitBreaker = null;
+        }
+
+        // trace ahead of the caches and coalescing so that their answers are traced as well
+        final String traceMode = context.getProperty(PROP_TRACE_MODE).getValue();
+        final int traceBufferSize = context.getProperty(PROP_TRACE_BUFFER_SIZE).asInteger();
+        final long traceLogIntervalNanos = context.getProperty(PROP_TRACE_LOG_INTERVAL).isSet()
+                ? context.getProperty(PROP_TRACE_LOG_INTERVAL).asTimePeriod(TimeUnit.NANOSECONDS) : 0;
+        if (TRACE_SAMPLED.getValue().equals(traceMode)) {
+            requestTracer = RequestTracer.sampling(getLogger(), traceBufferSize, context.getProperty(PROP_TRACE_SAMPLE_RATE).asInteger(),
+                    traceLogIntervalNanos);
+        } else if (TRACE_SLOW_OR_FAILED.getValue().equals(traceMode)) {
+            requestTracer = RequestTracer.slowOrFailed(getLogger(), traceBufferSize,
+                    context.getProperty(PROP_TRACE_SLOW_THRESHOLD).asTimePeriod(TimeUnit.NANOSECONDS), traceLogIntervalNanos);
+        } else {
+            requestTracer = null;
+        }
+        if (requestTracer != null) {
+            okHttpClientBuilder.addInterceptor(requestTracer);
+        }
+
         // configure ETag cache if enabled
         final boolean etagEnabled = context.getProperty(PROP_USE_ETAG).asBoolean();
         if(etagEnabled) {
-            final int maxCacheSizeBytes = context.getProperty(PROP_ETAG_MAX_CACHE_SIZE).asDataSize(DataUnit.B).intValue();
-            okHttpClientBuilder.cache(new Cache(getETagCacheDir(), maxCacheSizeBytes));
+            final long maxCacheSizeBytes = context.getProperty(PROP_ETAG_MAX_CACHE_SIZE).asDataSize(DataUnit.B).longValue();
+            okHttpClientBuilder.cache(openETagCache(context, maxCacheSizeBytes));
+
+            final PropertyValue memoryCacheSize = context.getProperty(PROP_ETAG_MEMORY_CACHE_SIZE);
+            if (memoryCacheSize.isSet() && memoryCacheSize.asDataSize(DataUnit.B).longValue() > 0) {
+                etagMemoryCache = new MemoryCacheInterceptor(memoryCacheSize.asDataSize(DataUnit.B).longValue(),
+                        context.getProperty(PROP_ETAG_MEMORY_CACHE_MAX_ENTRY_SIZE).asDataSize(DataUnit.B).longValue());
+                // an application interceptor runs before OkHttp looks in the disk cache
+                okHttpClientBuilder.addInterceptor(etagMemoryCache);
+            } else {
+                etagMemoryCache = null;
+            }
+        } else {
+            etagMemoryCache = null;
         }
 
+        // let identical requests share a call, behind the in-memory cache so that requests it answers are not held up
+        if (context.getProperty(PROP_COALESCE_REQUESTS).asBoolean()) {
+            coalescingInterceptor = new CoalescingInterceptor(context.getProperty(PROP_COALESCING_WINDOW).asTimePeriod(TimeUnit.NANOSECONDS),
+                    context.getProperty(PROP_COALESCING_MAX_BODY_SIZE).asDataSize(DataUnit.B).longValue());
+            okHttpClientBuilder.addInterceptor(coalescingInterceptor);
+        } else {
+            coalescingInterceptor = null;
+        }
+
+        // Time the phases of every call, the timings of a call are found in its request's tag
+        okHttpClientBuilder.eventListenerFactory(CallTimings.FACTORY);
+
         // Set timeouts
         okHttpClientBuilder.connectTimeout((context.getProperty(PROP_CONNECT_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS).intValue()), TimeUnit.MILLISECONDS);
         okHttpClientBuilder.readTimeout(context.getProperty(PROP_READ_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS).intValue(), TimeUnit.MILLISECONDS);
@@ -612,6 +1142,21 @@ public class CustomInvokeHTTP extends AbstractProcessor {
         // Set whether to follow redirects
         okHttpClientBuilder.followRedirects(context.getProperty(PROP_FOLLOW_REDIRECTS).asBoolean());
 
+        // Set the protocols offered to the server, over TLS OkHttp advertises them with ALPN
+        okHttpClientBuilder.protocols(getProtocols(context.getProperty(PROP_HTTP_PROTOCOL).getValue()));
+
+        // Size the connection pool and the dispatcher unless they are shared through the provider
+        if (clientProvider == null) {
+            final int maxIdleConnections = context.getProperty(PROP_MAX_IDLE_CONNECTIONS).asInteger();
+            final long keepAliveMillis = context.getProperty(PROP_KEEP_ALIVE_DURATION).asTimePeriod(TimeUnit.MILLISECONDS);
+            okHttpClientBuilder.connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS));
+
+            final Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(context.getProperty(PROP_MAX_REQUESTS).asInteger());
+            dispatcher.setMaxRequestsPerHost(context.getProperty(PROP_MAX_REQUESTS_PER_HOST).asInteger());
+            okHttpClientBuilder.dispatcher(dispatcher);
+        }
+
         final SSLContextService sslService = context.getProperty(PROP_SSL_CONTEXT_SERVICE).asControllerService(SSLContextService.class);
         final SSLContext sslContext = sslService == null ? null : sslService.createSSLContext(ClientAuth.NONE);
 
@@ -622,7 +1167,20 @@ public class CustomInvokeHTTP extends AbstractProcessor {
 
         setAuthenticator(okHttpClientBuilder, context);
 
-        useChunked = context.getProperty(PROP_USE_CHUNKED_ENCODING).asBoolean();
+        settings = new Settings(context, HeaderPlan.create(context, dynamicPropertyNames, regexAttributesToSend, excludedHeaders, getLogger()));
+        // every task, or in asynchronous mode every outstanding request, captures at most one response body at a time
+        final int maxCaptures = settings.asynchronous ? settings.maxOutstandingRequests : context.getMaxConcurrentTasks();
+        captureBuffers = new CaptureBufferPool(Math.max(1, maxCaptures));
+        outstandingPermits = new Semaphore(settings.maxOutstandingRequests);
+        stopping = false;
+        if (settings.retryPolicy.isEnabled()) {
+            final String threadName = "CustomInvokeHTTP Retries " + getIdentifier();
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
 
         okHttpClientAtomicReference.set(okHttpClientBuilder.build());
     }
@@ -700,8 +1258,11 @@ public class CustomInvokeHTTP extends AbstractProcessor {
         final String authUser = trimToEmpty(context.getProperty(PROP_BASIC_AUTH_USERNAME).getValue());
         final String authPass = trimToEmpty(context.getProperty(PROP_BASIC_AUTH_PASSWORD).getValue());
         final String authDomain = trimToEmpty(context.getProperty(PROP_NTLM_DOMAIN).getValue());
-        if (!authUser.isEmpty() && !authDomain.isEmpty() &&"true".equalsIgnoreCase(context.getProperty(PROP_NTLM_AUTH).getValue())) {
-            okHttpClientBuilder.authenticator(new NTLMAuthenticator(authUser, authPass, authDomain));
+        if (isNtlmEnabled(context)) {
+            // the interceptor tracks authenticated connections, so the handshake is only done once per connection
+            final NTLMAuthenticator ntlmAuthenticator = new NTLMAuthenticator(authUser, authPass, authDomain);
+            okHttpClientBuilder.authenticator(ntlmAuthenticator);
+            okHttpClientBuilder.addNetworkInterceptor(new NTLMConnectionInterceptor(ntlmAuthenticator));
         }
         // If the username/password properties are set then check if digest auth is being used
         else if (!authUser.isEmpty() && "true".equalsIgnoreCase(context.getProperty(PROP_DIGEST_AUTH).getValue())) {
@@ -719,242 +1280,855 @@ public class CustomInvokeHTTP extends AbstractProcessor {
         }
     }
 
+    private static List<Protocol> getProtocols(final String preference) {
+        if (HTTP_1_1_ONLY.getValue().equals(preference)) {
+            return Collections.singletonList(Protocol.HTTP_1_1);
+        } else if (HTTP_2_PRIOR_KNOWLEDGE.getValue().equals(preference)) {
+            return Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE);
+        }
+        return Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1);
+    }
+
+    /**
+     * @return what tells apart the credentials connections are authenticated with, null when NTLM is not used since
+     * other schemes authenticate each request
+     */
+    static String getConnectionIdentity(final ProcessContext context) {
+        if (!isNtlmEnabled(context)) {
+            return null;
+        }
+        // the password is hashed so that it is not kept as a key, but processors with different passwords are kept apart
+        final String password = trimToEmpty(context.getProperty(PROP_BASIC_AUTH_PASSWORD).getValue());
+        return "NTLM " + trimToEmpty(context.getProperty(PROP_NTLM_DOMAIN).getValue()) + '\\'
+                + trimToEmpty(context.getProperty(PROP_BASIC_AUTH_USERNAME).getValue()) + ' '
+                + Hashing.sha256().hashString(password, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isNtlmEnabled(final ProcessContext context) {
+        return !trimToEmpty(context.getProperty(PROP_BASIC_AUTH_USERNAME).getValue()).isEmpty()
+                && !trimToEmpty(context.getProperty(PROP_NTLM_DOMAIN).getValue()).isEmpty()
+                && "true".equalsIgnoreCase(context.getProperty(PROP_NTLM_AUTH).getValue());
+    }
+
     @Override
+    public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory) throws ProcessException {
+        if (settings.asynchronous) {
+            onTriggerAsync(context, sessionFactory);
+            return;
+        }
+
+        final ProcessSession session = sessionFactory.createSession();
+        try {
+            onTrigger(context, session);
+            session.commit();
+        } catch (final Throwable t) {
+            session.rollback(true);
+            throw t;
+        }
+    }
+
+    /**
+     * Handles an invocation in synchronous mode, sending a request or a batch of requests within the given session.
+     */
     public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
         OkHttpClient okHttpClient = okHttpClientAtomicReference.get();
+        final Settings settings = this.settings;
 
-        FlowFile requestFlowFile = session.get();
-
-        // Checking to see if the property to put the body of the response in an attribute was set
-        boolean putToAttribute = context.getProperty(PROP_PUT_OUTPUT_IN_ATTRIBUTE).isSet();
-        if (requestFlowFile == null) {
-            if(context.hasNonLoopConnection()){
+        FlowFile requestFlowFile;
+        if (settings.batchSize > 1) {
+            final List<FlowFile> requestFlowFiles = session.get(settings.batchSize);
+            if (requestFlowFiles.size() > 1) {
+                onTriggerBatch(context, session, okHttpClient, requestFlowFiles);
                 return;
             }
+            requestFlowFile = requestFlowFiles.isEmpty() ? null : requestFlowFiles.get(0);
+        } else {
+            requestFlowFile = session.get();
+        }
 
-            String request = context.getProperty(PROP_METHOD).evaluateAttributeExpressions().getValue().toUpperCase();
-            if ("POST".equals(request) || "PUT".equals(request) || "PATCH".equals(request)) {
+        if (requestFlowFile == null) {
+            if (!isSourceRequestAllowed(context, settings)) {
                 return;
-            } else if (putToAttribute) {
+            }
+            if (settings.putToAttribute) {
                 requestFlowFile = session.create();
             }
         }
 
-        // Setting some initial variables
-        final int maxAttributeSize = context.getProperty(PROP_PUT_ATTRIBUTE_MAX_LENGTH).asInteger();
-        final ComponentLog logger = getLogger();
+        reportClientMetrics(context, session, okHttpClient);
+        onTriggerSingle(context, session, okHttpClient, requestFlowFile);
+    }
 
-        // log ETag cache metrics
-        final boolean eTagEnabled = context.getProperty(PROP_USE_ETAG).asBoolean();
-        if(eTagEnabled && logger.isDebugEnabled()) {
-            final Cache cache = okHttpClient.cache();
-            logger.debug("OkHttp ETag cache metrics :: Request Count: {} | Network Count: {} | Hit Count: {}",
-                    new Object[] {cache.requestCount(), cache.networkCount(), cache.hitCount()});
+    /**
+     * Sends the request for a FlowFile, or without one as a source processor, streaming its content, and routes the response
+     * within the given session.
+     */
+    private void onTriggerSingle(final ProcessContext context, final ProcessSession session, final OkHttpClient okHttpClient,
+                                 final FlowFile requestFlowFile) {
+        final Exchange exchange = new Exchange(requestFlowFile);
+        try {
+            prepareExchange(context, session, exchange, false);
+
+            // with retries the task waits for the last attempt, the session being left alone meanwhile
+            try (Response responseHttp = settings.retryPolicy.isEnabled() ? awaitResponse(send(okHttpClient, exchange))
+                    : execute(okHttpClient, exchange)) {
+                processResponse(context, session, exchange, responseHttp);
+            }
+        } catch (final Exception e) {
+            handleException(context, session, exchange, e);
         }
+    }
 
-        // Every request/response cycle has a unique transaction id which will be stored as a flowfile attribute.
-        final UUID txId = UUID.randomUUID();
+    /**
+     * Dispatches the requests for a batch of FlowFiles concurrently through OkHttp's dispatcher and routes each
+     * request/response pair within the current session as its response arrives. Request bodies are buffered up to the
+     * batch buffer size, the FlowFiles whose content does not fit being sent one at a time once the batch is routed.
+     */
+    private void onTriggerBatch(final ProcessContext context, final ProcessSession session, final OkHttpClient okHttpClient,
+                                final List<FlowFile> requestFlowFiles) {
+        reportClientMetrics(context, session, okHttpClient);
+
+        final Settings settings = this.settings;
+        // a response holds its connection until it is routed, so no more requests are left unrouted than the dispatcher
+        // runs at once for a host, which keeps the batch on the connections it would reuse one request at a time
+        final Dispatcher dispatcher = okHttpClient.dispatcher();
+        final int maxUnrouted = Math.min(dispatcher.getMaxRequests(), dispatcher.getMaxRequestsPerHost());
+        final BlockingQueue<Exchange> completed = new LinkedBlockingQueue<>();
+        int unrouted = 0;
+        final List<FlowFile> streamed = new ArrayList<>();
+        long bufferLeft = settings.batchMaxBufferSize;
+        for (final FlowFile requestFlowFile : requestFlowFiles) {
+            final long bodySize = isBodySent(settings, requestFlowFile) ? requestFlowFile.getSize() : 0;
+            if (bodySize > bufferLeft) {
+                streamed.add(requestFlowFile);
+                continue;
+            }
+            bufferLeft -= bodySize;
+
+            if (unrouted == maxUnrouted) {
+                routeCompleted(context, session, completed);
+                unrouted--;
+            }
+            final Exchange exchange = new Exchange(requestFlowFile);
+            try {
+                // the session is not thread safe and this thread keeps using it while the requests are in flight, so
+                // request bodies are buffered up front rather than read from the session by OkHttp's dispatcher threads
+                prepareExchange(context, session, exchange, true);
+                send(okHttpClient, exchange).whenComplete((response, failure) -> completed.add(exchange));
+                unrouted++;
+            } catch (final Exception e) {
+                handleException(context, session, exchange, e);
+            }
+        }
+
+        for (; unrouted > 0; unrouted--) {
+            routeCompleted(context, session, completed);
+        }
+
+        for (final FlowFile requestFlowFile : streamed) {
+            onTriggerSingle(context, session, okHttpClient, requestFlowFile);
+        }
+    }
+
+    /**
+     * Waits for the next exchange of a batch to complete and routes it. Every exchange that was sent completes, with a
+     * response or a failure, so the wait is not interrupted lest an exchange be left unrouted.
+     */
+    private void routeCompleted(final ProcessContext context, final ProcessSession session, final BlockingQueue<Exchange> completed) {
+        final Exchange exchange = Uninterruptibles.takeUninterruptibly(completed);
+        try (Response responseHttp = awaitResponse(exchange.pendingResponse)) {
+            processResponse(context, session, exchange, responseHttp);
+        } catch (final Exception e) {
+            handleException(context, session, exchange, e);
+        }
+    }
+
+    /**
+     * Whether the content of the FlowFile is sent as the request body, which only POST, PUT and PATCH requests carry.
+     */
+    private static boolean isBodySent(final Settings settings, final FlowFile requestFlowFile) {
+        if (!settings.sendBody) {
+            return false;
+        }
+        final String method = trimToEmpty(settings.method.evaluateAttributeExpressions(requestFlowFile).getValue()).toUpperCase();
+        return "POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method);
+    }
+
+    /**
+     * Whether a request is sent without an incoming FlowFile, which the processor does when it has no incoming connection
+     * and the method sends no body.
+     */
+    private static boolean isSourceRequestAllowed(final ProcessContext context, final Settings settings) {
+        if (context.hasNonLoopConnection()) {
+            return false;
+        }
+        final String method = settings.method.evaluateAttributeExpressions().getValue().toUpperCase();
+        return !("POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method));
+    }
 
-        FlowFile responseFlowFile = null;
+    /**
+     * Commits the exchanges completed since the last invocation and dispatches up to a batch of new ones. Each exchange
+     * has a session of its own, which OkHttp's dispatcher thread uses to route the response and stream its body into the
+     * content repository. Completed exchanges are handed back through a queue so that sessions are committed here; when no
+     * invocation is running the dispatcher thread commits instead, so that the last responses are not left waiting for
+     * the next FlowFile to arrive.
+     */
+    private void onTriggerAsync(final ProcessContext context, final ProcessSessionFactory sessionFactory) {
+        final OkHttpClient okHttpClient = okHttpClientAtomicReference.get();
+        final Settings settings = this.settings;
+        activeTriggers.incrementAndGet();
         try {
-            // read the url property from the context
-            final String urlstr = trimToEmpty(context.getProperty(PROP_URL).evaluateAttributeExpressions(requestFlowFile).getValue());
-            final URL url = new URL(urlstr);
+            commitCompletedExchanges();
+
+            final ProcessSession metricsSession = sessionFactory.createSession();
+            reportClientMetrics(context, metricsSession, okHttpClient);
+            metricsSession.commit();
+
+            for (int i = 0; i < settings.batchSize && outstandingPermits.tryAcquire(); i++) {
+                if (!dispatchAsync(context, sessionFactory, okHttpClient, settings)) {
+                    break;
+                }
+            }
+        } finally {
+            activeTriggers.decrementAndGet();
+            // an exchange completing while this invocation was active was left to it
+            commitCompletedExchanges();
+        }
+    }
+
+    /**
+     * Takes a FlowFile in a new session and dispatches its request. The caller holds an outstanding permit, which is
+     * released once the session is committed.
+     *
+     * @return whether another FlowFile may be dispatched in this invocation
+     */
+    private boolean dispatchAsync(final ProcessContext context, final ProcessSessionFactory sessionFactory, final OkHttpClient okHttpClient,
+                                  final Settings settings) {
+        final ProcessSession session = sessionFactory.createSession();
+        FlowFile requestFlowFile = session.get();
+        final boolean sourceRequest = requestFlowFile == null;
+        if (sourceRequest) {
+            if (!isSourceRequestAllowed(context, settings)) {
+                session.rollback();
+                outstandingPermits.release();
+                return false;
+            }
+            if (settings.putToAttribute) {
+                requestFlowFile = session.create();
+            }
+        }
 
-            Request httpRequest = configureRequest(context, session, requestFlowFile, url);
+        final Exchange exchange = new Exchange(requestFlowFile);
+        exchange.session = session;
+        try {
+            // the session belongs to this exchange alone, so the request body can be streamed from the dispatcher thread
+            prepareExchange(context, session, exchange, false);
+        } catch (final Exception e) {
+            handleException(context, session, exchange, e);
+            completedExchanges.add(exchange);
+            return !sourceRequest;
+        }
 
-            // log request
-            logRequest(logger, httpRequest);
+        inFlightExchanges.add(exchange);
+        send(okHttpClient, exchange).whenComplete((response, failure) -> completeAsync(context, exchange, response, failure));
+        // a source processor sends one request per invocation, as it does synchronously
+        return !sourceRequest;
+    }
 
-            // emit send provenance event if successfully sent to the server
-            if (httpRequest.body() != null) {
-                session.getProvenanceReporter().send(requestFlowFile, url.toExternalForm(), true);
+    /**
+     * Routes the response of an asynchronous exchange on the dispatcher thread that received it and hands the exchange
+     * back to be committed.
+     */
+    private void completeAsync(final ProcessContext context, final Exchange exchange, final Response responseHttp, final Throwable failure) {
+        final ProcessSession session = exchange.session;
+        try {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+            try (Response response = responseHttp) {
+                processResponse(context, session, exchange, response);
+            }
+        } catch (final Exception e) {
+            if (stopping) {
+                // the call was cancelled because the processor is stopping, the FlowFile goes back to the queue
+                recordCompletion(exchange, RequestMetrics.FAILED);
+                session.rollback();
+                exchange.rolledBack = true;
+            } else {
+                handleException(context, session, exchange, e);
+            }
+        } finally {
+            inFlightExchanges.remove(exchange);
+            completedExchanges.add(exchange);
+            if (activeTriggers.get() == 0) {
+                commitCompletedExchanges();
             }
+        }
+    }
 
-            final long startNanos = System.nanoTime();
+    private void commitCompletedExchanges() {
+        Exchange exchange;
+        while ((exchange = completedExchanges.poll()) != null) {
+            try {
+                if (!exchange.rolledBack) {
+                    exchange.session.commit();
+                }
+            } catch (final Exception e) {
+                getLogger().error("Failed to commit the session for {} due to {}", new Object[]{exchange.request, e}, e);
+                exchange.session.rollback(true);
+            } finally {
+                outstandingPermits.release();
+            }
+        }
+    }
 
-            try (Response responseHttp = okHttpClient.newCall(httpRequest).execute()) {
-                // output the raw response headers (DEBUG level only)
-                logResponse(logger, url, responseHttp);
+    @OnStopped
+    public void onStopped() throws IOException {
+        cancelOutstandingRequests();
+        final ScheduledExecutorService scheduler = retryScheduler;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            retryScheduler = null;
+        }
+        final RequestTracer tracer = requestTracer;
+        if (tracer != null) {
+            tracer.dump();
+        }
+        closeETagCache();
+    }
 
-                // store the status code and message
-                int statusCode = responseHttp.code();
-                String statusMessage = responseHttp.message();
+    /**
+     * Lets the requests still in flight in asynchronous mode complete, cancelling those that have not after
+     * {@link #STOP_TIMEOUT_SECONDS}. Requests waiting to be retried are cancelled at once. The FlowFiles of cancelled
+     * requests are rolled back to the incoming queue, while responses that were routed are committed.
+     */
+    private void cancelOutstandingRequests() {
+        final Settings settings = this.settings;
+        if (settings == null || !settings.asynchronous) {
+            return;
+        }
+        stopping = true;
+        // requests waiting for their backoff are not sent again, their callbacks rolling them back
+        for (final Exchange exchange : inFlightExchanges) {
+            cancelRetry(exchange);
+        }
 
-                if (statusCode == 0) {
-                    throw new IllegalStateException("Status code unknown, connection hasn't been attempted.");
+        // every permit is back once the callbacks of the requests have routed or rolled back and released their exchanges
+        try {
+            if (!awaitOutstandingRequests(settings)) {
+                for (final Exchange exchange : inFlightExchanges) {
+                    exchange.cancelled = true;
+                    final Call call = exchange.call;
+                    if (call != null) {
+                        call.cancel();
+                    }
+                }
+                if (!awaitOutstandingRequests(settings)) {
+                    getLogger().warn("{} requests did not complete within {} seconds of being cancelled",
+                            new Object[]{inFlightExchanges.size(), STOP_TIMEOUT_SECONDS});
                 }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commitCompletedExchanges();
+    }
 
-                // Create a map of the status attributes that are always written to the request and response FlowFiles
-                Map<String, String> statusAttributes = new HashMap<>();
-                statusAttributes.put(STATUS_CODE, String.valueOf(statusCode));
-                statusAttributes.put(STATUS_MESSAGE, statusMessage);
-                statusAttributes.put(REQUEST_URL, url.toExternalForm());
-                statusAttributes.put(TRANSACTION_ID, txId.toString());
+    private boolean awaitOutstandingRequests(final Settings settings) throws InterruptedException {
+        if (outstandingPermits.tryAcquire(settings.maxOutstandingRequests, STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            outstandingPermits.release(settings.maxOutstandingRequests);
+            return true;
+        }
+        return false;
+    }
 
-                if (requestFlowFile != null) {
-                    requestFlowFile = session.putAllAttributes(requestFlowFile, statusAttributes);
+    /**
+     * Sends the request of an exchange through OkHttp's dispatcher, sending it again as the retry policy allows. Between
+     * attempts the request waits on the retry scheduler, holding no thread of its own; a caller awaiting the response waits
+     * through the backoffs.
+     *
+     * @return the response to the last attempt, or its failure
+     */
+    private CompletableFuture<Response> send(final OkHttpClient okHttpClient, final Exchange exchange) {
+        final CompletableFuture<Response> pendingResponse = new CompletableFuture<>();
+        exchange.pendingResponse = pendingResponse;
+        attempt(okHttpClient, exchange, pendingResponse);
+        return pendingResponse;
+    }
+
+    private void attempt(final OkHttpClient okHttpClient, final Exchange exchange, final CompletableFuture<Response> pendingResponse) {
+        final RetryPolicy retryPolicy = settings.retryPolicy;
+        final CircuitBreaker breaker = circuitBreaker;
+        final String host = exchange.url.host();
+        final long permit;
+        try {
+            permit = breaker == null ? 0 : breaker.acquire(host, System.nanoTime());
+        } catch (final CircuitBreaker.OpenException e) {
+            pendingResponse.completeExceptionally(e);
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        final Call call = okHttpClient.newCall(exchange.httpRequest);
+        exchange.call = call;
+        exchange.attempts++;
+        // the processor may be stopping since the request started to wait for its backoff
+        if (stopping || exchange.cancelled) {
+            call.cancel();
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // a call cancelled on stop says nothing about the host
+                if (breaker != null && !call.isCanceled()) {
+                    breaker.record(host, permit, true, startNanos, System.nanoTime());
                 }
+                if (!call.isCanceled() && retryPolicy.shouldRetry(exchange.attempts, call.request(), e)) {
+                    retry(okHttpClient, exchange, pendingResponse, retryPolicy.backoffMillis(exchange.attempts, null), e);
+                } else {
+                    pendingResponse.completeExceptionally(e);
+                }
+            }
 
-                // If the property to add the response headers to the request flowfile is true then add them
-                if (context.getProperty(PROP_ADD_HEADERS_TO_REQUEST).asBoolean() && requestFlowFile != null) {
-                    // write the response headers as attributes
-                    // this will overwrite any existing flowfile attributes
-                    requestFlowFile = session.putAllAttributes(requestFlowFile, convertAttributesFromHeaders(responseHttp));
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (breaker != null) {
+                    breaker.record(host, permit, CircuitBreaker.isFailure(response.code()), startNanos, System.nanoTime());
+                }
+                if (!call.isCanceled() && retryPolicy.shouldRetry(exchange.attempts, call.request(), response)) {
+                    final long backoffMillis = retryPolicy.backoffMillis(exchange.attempts, response);
+                    response.close();
+                    retry(okHttpClient, exchange, pendingResponse, backoffMillis, null);
+                } else {
+                    pendingResponse.complete(response);
                 }
+            }
+        });
+    }
 
-                boolean outputBodyToRequestAttribute = (!isSuccess(statusCode) || putToAttribute) && requestFlowFile != null;
-                boolean outputBodyToResponseContent = (isSuccess(statusCode) && !putToAttribute) || context.getProperty(PROP_OUTPUT_RESPONSE_REGARDLESS).asBoolean();
-                ResponseBody responseBody = responseHttp.body();
-                boolean bodyExists = responseBody != null;
-
-                InputStream responseBodyStream = null;
-                SoftLimitBoundedByteArrayOutputStream outputStreamToRequestAttribute = null;
-                TeeInputStream teeInputStream = null;
-                try {
-                    responseBodyStream = bodyExists ? responseBody.byteStream() : null;
-                    if (responseBodyStream != null && outputBodyToRequestAttribute && outputBodyToResponseContent) {
-                        outputStreamToRequestAttribute = new SoftLimitBoundedByteArrayOutputStream(maxAttributeSize);
-                        teeInputStream = new TeeInputStream(responseBodyStream, outputStreamToRequestAttribute);
-                    }
+    private void retry(final OkHttpClient okHttpClient, final Exchange exchange, final CompletableFuture<Response> pendingResponse,
+                       final long backoffMillis, final IOException failure) {
+        final ScheduledExecutorService scheduler = retryScheduler;
+        try {
+            if (scheduler == null || stopping) {
+                throw new RejectedExecutionException();
+            }
+            exchange.pendingRetry = scheduler.schedule(() -> attempt(okHttpClient, exchange, pendingResponse), backoffMillis, TimeUnit.MILLISECONDS);
+            retriedRequests.increment();
+            // the processor may have started to stop while the retry was being scheduled
+            if (stopping) {
+                cancelRetry(exchange);
+            }
+        } catch (final RejectedExecutionException e) {
+            // the processor is stopping
+            pendingResponse.completeExceptionally(failure != null ? failure : new IOException("Canceled"));
+        }
+    }
 
-                    if (outputBodyToResponseContent) {
-                        /*
-                         * If successful and putting to response flowfile, store the response body as the flowfile payload
-                         * we include additional flowfile attributes including the response headers and the status codes.
-                         */
-
-                        // clone the flowfile to capture the response
-                        if (requestFlowFile != null) {
-                            responseFlowFile = session.create(requestFlowFile);
-                        } else {
-                            responseFlowFile = session.create();
-                        }
-
-                        // write attributes to response flowfile
-                        responseFlowFile = session.putAllAttributes(responseFlowFile, statusAttributes);
-
-                        // write the response headers as attributes
-                        // this will overwrite any existing flowfile attributes
-                        responseFlowFile = session.putAllAttributes(responseFlowFile, convertAttributesFromHeaders(responseHttp));
-
-                        // transfer the message body to the payload
-                        // can potentially be null in edge cases
-                        if (bodyExists) {
-                            // write content type attribute to response flowfile if it is available
-                            if (responseBody.contentType() != null) {
-                                responseFlowFile = session.putAttribute(responseFlowFile, CoreAttributes.MIME_TYPE.key(), responseBody.contentType().toString());
-                            }
-                            if (teeInputStream != null) {
-                                responseFlowFile = session.importFrom(teeInputStream, responseFlowFile);
-                            } else {
-                                responseFlowFile = session.importFrom(responseBodyStream, responseFlowFile);
-                            }
-
-                            // emit provenance event
-                            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
-                            if(requestFlowFile != null) {
-                                session.getProvenanceReporter().fetch(responseFlowFile, url.toExternalForm(), millis);
-                            } else {
-                                session.getProvenanceReporter().receive(responseFlowFile, url.toExternalForm(), millis);
-                            }
-                        }
-                    }
+    /**
+     * Cancels the retry the exchange is waiting for, if any, failing its pending response. A retry that already started
+     * is left to see that the processor is stopping.
+     */
+    private static void cancelRetry(final Exchange exchange) {
+        final ScheduledFuture<?> pendingRetry = exchange.pendingRetry;
+        if (pendingRetry != null && pendingRetry.cancel(false)) {
+            exchange.pendingResponse.completeExceptionally(new IOException("Canceled"));
+        }
+    }
+
+    /**
+     * Sends the request of an exchange on the calling thread, unless the circuit for its host is open.
+     */
+    private Response execute(final OkHttpClient okHttpClient, final Exchange exchange) throws IOException {
+        final CircuitBreaker breaker = circuitBreaker;
+        if (breaker == null) {
+            return okHttpClient.newCall(exchange.httpRequest).execute();
+        }
+        final String host = exchange.url.host();
+        final long permit = breaker.acquire(host, System.nanoTime());
+        final long startNanos = System.nanoTime();
+        try {
+            final Response response = okHttpClient.newCall(exchange.httpRequest).execute();
+            breaker.record(host, permit, CircuitBreaker.isFailure(response.code()), startNanos, System.nanoTime());
+            return response;
+        } catch (final IOException | RuntimeException e) {
+            breaker.record(host, permit, true, startNanos, System.nanoTime());
+            throw e;
+        }
+    }
+
+    private static Response awaitResponse(final CompletableFuture<Response> pendingResponse) throws IOException, InterruptedException {
+        try {
+            return pendingResponse.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void reportClientMetrics(final ProcessContext context, final ProcessSession session, final OkHttpClient okHttpClient) {
+        // publish connection pool and dispatcher occupancy
+        final ConnectionPool connectionPool = okHttpClient.connectionPool();
+        clientGauges.set(session, "Connection Pool Idle Connections", connectionPool.idleConnectionCount());
+        clientGauges.set(session, "Connection Pool Total Connections", connectionPool.connectionCount());
+        clientGauges.set(session, "Dispatcher Running Calls", okHttpClient.dispatcher().runningCallsCount());
+        clientGauges.set(session, "Dispatcher Queued Calls", okHttpClient.dispatcher().queuedCallsCount());
+        clientGauges.set(session, "Capture Buffer Pool Hits", captureBuffers.getHits());
+        clientGauges.set(session, "Capture Buffer Pool Misses", captureBuffers.getMisses());
+
+        // publish how much of the ETag cache is used, entries are evicted as it reaches its maximum size
+        final Cache etagCache = this.etagCache;
+        if (etagCache != null) {
+            try {
+                clientGauges.set(session, "ETag Disk Cache Size", etagCache.size());
+                clientGauges.set(session, "ETag Disk Cache Max Size", etagCache.maxSize());
+            } catch (final IOException e) {
+                getLogger().debug("Could not read the size of the ETag cache", e);
+            }
+        }
+
+        final RequestMetrics metrics = this.requestMetrics;
+        clientGauges.set(session, "Requests In Flight", metrics.getInFlight());
+        clientGauges.set(session, "Request Bytes Sent", metrics.getBytesSent());
+        clientGauges.set(session, "Response Bytes Received", metrics.getBytesReceived());
+        clientGauges.set(session, "Connections Opened", metrics.getConnectionsOpened());
+        clientGauges.set(session, "Connections Reused", metrics.getConnectionsReused());
+        clientGauges.set(session, "Authentication Round Trips", metrics.getAuthRoundTrips());
+        clientGauges.set(session, "Retried Requests", retriedRequests.sum());
+        final CircuitBreaker breaker = this.circuitBreaker;
+        if (breaker != null) {
+            clientGauges.set(session, "Circuit Breakers Open", breaker.getOpenCount());
+            clientGauges.set(session, "Circuit Breaker Openings", breaker.getOpenings());
+            clientGauges.set(session, "Circuit Breaker Rejected Requests", breaker.getRejectedCount());
+        }
+        if (metrics.isSummaryDue(System.nanoTime())) {
+            reportLatency(session, metrics.summarize());
+        }
+        final RequestTracer tracer = requestTracer;
+        if (tracer != null && tracer.isLogDue(System.nanoTime())) {
+            tracer.logRecent();
+        }
+
+        final com.google.common.cache.CacheStats urlStats = settings.parsedUrls.stats();
+        if (urlStats.requestCount() > 0) {
+            clientGauges.set(session, "Parsed URL Cache Hit Ratio %", Math.round(urlStats.hitRate() * 100));
+        }
+
+        final CoalescingInterceptor coalescing = this.coalescingInterceptor;
+        if (coalescing != null) {
+            clientGauges.set(session, "Coalesced Requests", coalescing.getCoalescedCount());
+        }
+
+        // publish the hit ratio of each ETag cache tier, the disk cache only sees what the memory cache did not answer
+        final MemoryCacheInterceptor memoryCache = this.etagMemoryCache;
+        if (memoryCache != null) {
+            clientGauges.set(session, "ETag Memory Cache Requests", memoryCache.getRequestCount());
+            clientGauges.set(session, "ETag Memory Cache Hits", memoryCache.getHitCount());
+            clientGauges.set(session, "ETag Memory Cache Hit Ratio %", percent(memoryCache.getHitCount(), memoryCache.getRequestCount()));
+            clientGauges.set(session, "ETag Memory Cache Entries", memoryCache.getEntryCount());
+        }
+        if (etagCache != null) {
+            clientGauges.set(session, "ETag Disk Cache Requests", etagCache.requestCount());
+            clientGauges.set(session, "ETag Disk Cache Hits", etagCache.hitCount());
+            clientGauges.set(session, "ETag Disk Cache Network Requests", etagCache.networkCount());
+            clientGauges.set(session, "ETag Disk Cache Hit Ratio %", percent(etagCache.hitCount(), etagCache.requestCount()));
+        }
+    }
+
+    /**
+     * Logs the latency of the requests completed over the last summary interval and publishes its percentiles in milliseconds.
+     */
+    private void reportLatency(final ProcessSession session, final Map<String, LatencyHistogram.Snapshot> latency) {
+        if (latency.isEmpty()) {
+            return;
+        }
+        final StringBuilder summary = new StringBuilder();
+        for (final Map.Entry<String, LatencyHistogram.Snapshot> entry : latency.entrySet()) {
+            final LatencyHistogram.Snapshot snapshot = entry.getValue();
+            final long p50 = TimeUnit.MICROSECONDS.toMillis(snapshot.valueAt(0.5));
+            final long p90 = TimeUnit.MICROSECONDS.toMillis(snapshot.valueAt(0.9));
+            final long p99 = TimeUnit.MICROSECONDS.toMillis(snapshot.valueAt(0.99));
+            final long max = TimeUnit.MICROSECONDS.toMillis(snapshot.getMax());
+            clientGauges.set(session, "Latency p50 ms " + entry.getKey(), p50);
+            clientGauges.set(session, "Latency p99 ms " + entry.getKey(), p99);
+            clientGauges.set(session, "Latency Max ms " + entry.getKey(), max);
+            summary.append("\n\t").append(entry.getKey()).append(": ").append(snapshot.getCount()).append(" requests, p50 ")
+                    .append(p50).append(" ms, p90 ").append(p90).append(" ms, p99 ").append(p99).append(" ms, max ").append(max).append(" ms");
+        }
+        getLogger().info("Latency of the requests completed since the previous summary:{}", new Object[]{summary});
+    }
 
-                    // if not successful and request flowfile is not null, store the response body into a flowfile attribute
-                    if (outputBodyToRequestAttribute && bodyExists) {
-                        String attributeKey = context.getProperty(PROP_PUT_OUTPUT_IN_ATTRIBUTE).evaluateAttributeExpressions(requestFlowFile).getValue();
-                        if (attributeKey == null) {
-                            attributeKey = RESPONSE_BODY;
-                        }
-                        byte[] outputBuffer;
-                        int size;
-
-                        if (outputStreamToRequestAttribute != null) {
-                            outputBuffer = outputStreamToRequestAttribute.getBuffer();
-                            size = outputStreamToRequestAttribute.size();
-                        } else {
-                            outputBuffer = new byte[maxAttributeSize];
-                            size = StreamUtils.fillBuffer(responseBodyStream, outputBuffer, false);
-                        }
-                        String bodyString = new String(outputBuffer, 0, size, getCharsetFromMediaType(responseBody.contentType()));
-                        requestFlowFile = session.putAttribute(requestFlowFile, attributeKey, bodyString);
-
-                        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
-                        session.getProvenanceReporter().modifyAttributes(requestFlowFile, "The " + attributeKey + " has been added. The value of which is the body of a http call to "
-                                + url.toExternalForm() + ". It took " + millis + "millis,");
+    private static long percent(final long part, final long total) {
+        return total == 0 ? 0 : part * 100 / total;
+    }
+
+    /**
+     * Resolves the URL and builds the HTTP request for the exchange, emitting the send provenance event when a body is sent.
+     */
+    private void prepareExchange(final ProcessContext context, final ProcessSession session, final Exchange exchange, final boolean bufferBody)
+            throws MalformedURLException {
+        final Settings settings = this.settings;
+        if (settings.constantUrl != null) {
+            exchange.urlString = settings.constantUrlString;
+            exchange.url = settings.constantUrl;
+        } else {
+            // read the url property from the context
+            exchange.urlString = trimToEmpty(settings.url.evaluateAttributeExpressions(exchange.request).getValue());
+            exchange.url = parseUrl(settings, exchange.urlString);
+        }
+
+        exchange.httpRequest = configureRequest(context, session, exchange.request, exchange.url, bufferBody);
+
+        // emit send provenance event if successfully sent to the server
+        if (exchange.httpRequest.body() != null) {
+            session.getProvenanceReporter().send(exchange.request, exchange.urlString, true);
+        }
+
+        exchange.startNanos = System.nanoTime();
+        exchange.requestMetrics = requestMetrics;
+        exchange.requestBytes = settings.sendBody && exchange.httpRequest.body() != null && exchange.request != null
+                ? exchange.request.getSize() : 0;
+        exchange.requestMetrics.started(exchange.requestBytes);
+    }
+
+    /**
+     * Records the latency of a request that was sent, once, whether it got a response or failed.
+     */
+    private static void recordCompletion(final Exchange exchange, final String outcome) {
+        final RequestMetrics metrics = exchange.requestMetrics;
+        if (metrics != null) {
+            exchange.requestMetrics = null;
+            metrics.completed(exchange.url.host(), exchange.httpRequest.method(), outcome, System.nanoTime() - exchange.startNanos);
+            metrics.phases(exchange.httpRequest.tag(CallTimings.class));
+        }
+    }
+
+    /**
+     * Takes back a request that was never sent, so that it counts neither as in flight nor in the latency of its host.
+     */
+    private static void recordNotSent(final Exchange exchange) {
+        final RequestMetrics metrics = exchange.requestMetrics;
+        if (metrics != null) {
+            exchange.requestMetrics = null;
+            metrics.notSent(exchange.requestBytes);
+        }
+    }
+
+    private static HttpUrl parseUrl(final Settings settings, final String url) throws MalformedURLException {
+        HttpUrl parsed = settings.parsedUrls.getIfPresent(url);
+        if (parsed == null) {
+            parsed = HttpUrl.parse(url);
+            if (parsed == null) {
+                throw new MalformedURLException("Not a valid http or https URL: " + url);
+            }
+            settings.parsedUrls.put(url, parsed);
+        }
+        return parsed;
+    }
+
+    private void processResponse(final ProcessContext context, final ProcessSession session, final Exchange exchange, final Response responseHttp)
+            throws IOException {
+        // Setting some initial variables
+        final Settings settings = this.settings;
+        final int maxAttributeSize = settings.maxAttributeSize;
+        final boolean putToAttribute = settings.putToAttribute;
+        final String url = exchange.urlString;
+
+        // store the status code and message
+        int statusCode = responseHttp.code();
+        String statusMessage = responseHttp.message();
+        recordCompletion(exchange, RequestMetrics.outcome(statusCode));
+
+        if (statusCode == 0) {
+            throw new IllegalStateException("Status code unknown, connection hasn't been attempted.");
+        }
+
+        // Create a map of the status attributes that are always written to the request and response FlowFiles
+        Map<String, String> statusAttributes = new HashMap<>();
+        statusAttributes.put(STATUS_CODE, String.valueOf(statusCode));
+        statusAttributes.put(STATUS_MESSAGE, statusMessage);
+        statusAttributes.put(REQUEST_URL, url);
+        statusAttributes.put(TRANSACTION_ID, exchange.txId.toString());
+        statusAttributes.put(PROTOCOL, responseHttp.protocol().toString());
+        if (settings.timingAttributes) {
+            statusAttributes.putAll(exchange.httpRequest.tag(CallTimings.class).toAttributes());
+        }
+        session.adjustCounter("Responses Over " + responseHttp.protocol(), 1, true);
+
+        if (exchange.request != null) {
+            exchange.request = session.putAllAttributes(exchange.request, statusAttributes);
+        }
+
+        // If the property to add the response headers to the request flowfile is true then add them
+        if (settings.addHeadersToRequest && exchange.request != null) {
+            // write the response headers as attributes
+            // this will overwrite any existing flowfile attributes
+            exchange.request = session.putAllAttributes(exchange.request, convertAttributesFromHeaders(responseHttp));
+        }
+
+        boolean outputBodyToRequestAttribute = (!isSuccess(statusCode) || putToAttribute) && exchange.request != null;
+        boolean outputBodyToResponseContent = (isSuccess(statusCode) && !putToAttribute) || settings.outputResponseRegardless;
+        ResponseBody responseBody = responseHttp.body();
+        boolean bodyExists = responseBody != null;
+
+        CountingInputStream responseBodyStream = null;
+        SoftLimitBoundedByteArrayOutputStream outputStreamToRequestAttribute = null;
+        TeeInputStream teeInputStream = null;
+        try {
+            responseBodyStream = bodyExists ? new CountingInputStream(responseBody.byteStream()) : null;
+            if (responseBodyStream != null && outputBodyToRequestAttribute && outputBodyToResponseContent) {
+                outputStreamToRequestAttribute = captureBuffers.acquire(maxAttributeSize);
+                teeInputStream = new TeeInputStream(responseBodyStream, outputStreamToRequestAttribute);
+            }
+
+            if (outputBodyToResponseContent) {
+                /*
+                 * If successful and putting to response flowfile, store the response body as the flowfile payload
+                 * we include additional flowfile attributes including the response headers and the status codes.
+                 */
+
+                // clone the flowfile to capture the response
+                if (exchange.request != null) {
+                    exchange.response = session.create(exchange.request);
+                } else {
+                    exchange.response = session.create();
+                }
+
+                // write attributes to response flowfile
+                exchange.response = session.putAllAttributes(exchange.response, statusAttributes);
+
+                // write the response headers as attributes
+                // this will overwrite any existing flowfile attributes
+                exchange.response = session.putAllAttributes(exchange.response, convertAttributesFromHeaders(responseHttp));
+
+                // transfer the message body to the payload
+                // can potentially be null in edge cases
+                if (bodyExists) {
+                    // write content type attribute to response flowfile if it is available
+                    if (responseBody.contentType() != null) {
+                        exchange.response = session.putAttribute(exchange.response, CoreAttributes.MIME_TYPE.key(), responseBody.contentType().toString());
                     }
-                } finally {
-                    if(outputStreamToRequestAttribute != null){
-                        outputStreamToRequestAttribute.close();
+                    if (teeInputStream != null) {
+                        exchange.response = session.importFrom(teeInputStream, exchange.response);
+                    } else {
+                        exchange.response = session.importFrom(responseBodyStream, exchange.response);
                     }
-                    if(teeInputStream != null){
-                        teeInputStream.close();
-                    } else if(responseBodyStream != null){
-                        responseBodyStream.close();
+
+                    // emit provenance event
+                    final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - exchange.startNanos);
+                    if(exchange.request != null) {
+                        session.getProvenanceReporter().fetch(exchange.response, url, millis);
+                    } else {
+                        session.getProvenanceReporter().receive(exchange.response, url, millis);
                     }
                 }
+            }
 
-                route(requestFlowFile, responseFlowFile, session, context, statusCode);
+            // if not successful and request flowfile is not null, store the response body into a flowfile attribute
+            if (outputBodyToRequestAttribute && bodyExists) {
+                String attributeKey = settings.putOutputInAttribute.evaluateAttributeExpressions(exchange.request).getValue();
+                if (attributeKey == null) {
+                    attributeKey = RESPONSE_BODY;
+                }
+                // the body was not teed while writing the response content, so read it up to the limit now
+                if (outputStreamToRequestAttribute == null) {
+                    outputStreamToRequestAttribute = captureBuffers.acquire(maxAttributeSize);
+                    outputStreamToRequestAttribute.fillFrom(responseBodyStream);
+                }
+                String bodyString = AttributeDecoder.decode(outputStreamToRequestAttribute, getCharsetFromMediaType(responseBody.contentType()));
+                exchange.request = session.putAttribute(exchange.request, attributeKey, bodyString);
 
+                final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - exchange.startNanos);
+                session.getProvenanceReporter().modifyAttributes(exchange.request, "The " + attributeKey + " has been added. The value of which is the body of a http call to "
+                        + url + ". It took " + millis + "millis,");
             }
-        } catch (final Exception e) {
-            // penalize or yield
-            if (requestFlowFile != null) {
-                logger.error("Routing to {} due to exception: {}", new Object[]{REL_FAILURE.getName(), e}, e);
-                requestFlowFile = session.penalize(requestFlowFile);
-                requestFlowFile = session.putAttribute(requestFlowFile, EXCEPTION_CLASS, e.getClass().getName());
-                requestFlowFile = session.putAttribute(requestFlowFile, EXCEPTION_MESSAGE, e.getMessage());
-                // transfer original to failure
-                session.transfer(requestFlowFile, REL_FAILURE);
+        } finally {
+            if(outputStreamToRequestAttribute != null){
+                captureBuffers.release(outputStreamToRequestAttribute);
+            }
+            if(teeInputStream != null){
+                teeInputStream.close();
+            } else if(responseBodyStream != null){
+                responseBodyStream.close();
+            }
+            if (responseBodyStream != null) {
+                requestMetrics.received(responseBodyStream.getByteCount());
+            }
+        }
+
+        route(exchange.request, exchange.response, session, context, settings, statusCode);
+    }
+
+    private void handleException(final ProcessContext context, final ProcessSession session, final Exchange exchange, final Exception e) {
+        final ComponentLog logger = getLogger();
+        if (e instanceof CircuitBreaker.OpenException && exchange.attempts == 0) {
+            // refused by the circuit breaker, which counts it, before any attempt was sent: its near-zero duration would
+            // pull down the latency of the host just while it is failing
+            recordNotSent(exchange);
+        } else {
+            recordCompletion(exchange, RequestMetrics.FAILED);
+        }
+        // penalize or yield
+        if (exchange.request != null) {
+            if (e instanceof CircuitBreaker.OpenException) {
+                // the circuit opening was logged once, rather than for every FlowFile failing fast
+                logger.debug("Routing to {} since {}", new Object[]{REL_FAILURE.getName(), e.getMessage()});
+                exchange.request = session.putAttribute(exchange.request, CIRCUIT_STATE, ((CircuitBreaker.OpenException) e).getState().toString());
             } else {
-                logger.error("Yielding processor due to exception encountered as a source processor: {}", e);
-                context.yield();
+                logger.error("Routing to {} due to exception: {}", new Object[]{REL_FAILURE.getName(), e}, e);
             }
+            exchange.request = session.penalize(exchange.request);
+            exchange.request = session.putAttribute(exchange.request, EXCEPTION_CLASS, e.getClass().getName());
+            exchange.request = session.putAttribute(exchange.request, EXCEPTION_MESSAGE, e.getMessage());
+            // transfer original to failure
+            session.transfer(exchange.request, REL_FAILURE);
+        } else {
+            logger.error("Yielding processor due to exception encountered as a source processor: {}", e);
+            context.yield();
+        }
 
 
-            // cleanup response flowfile, if applicable
-            try {
-                if (responseFlowFile != null) {
-                    session.remove(responseFlowFile);
-                }
-            } catch (final Exception e1) {
-                logger.error("Could not cleanup response flowfile due to exception: {}", new Object[]{e1}, e1);
+        // cleanup response flowfile, if applicable
+        try {
+            if (exchange.response != null) {
+                session.remove(exchange.response);
             }
+        } catch (final Exception e1) {
+            logger.error("Could not cleanup response flowfile due to exception: {}", new Object[]{e1}, e1);
         }
     }
 
 
-    private Request configureRequest(final ProcessContext context, final ProcessSession session, final FlowFile requestFlowFile, URL url) {
+    Request configureRequest(final ProcessContext context, final ProcessSession session, final FlowFile requestFlowFile, HttpUrl url,
+                                     final boolean bufferBody) {
+        final Settings settings = this.settings;
         Request.Builder requestBuilder = new Request.Builder();
 
-        requestBuilder = requestBuilder.url(url);
-        final String authUser = trimToEmpty(context.getProperty(PROP_BASIC_AUTH_USERNAME).getValue());
-
-        // If the username/password properties are set then check if digest auth is being used
-        if (!authUser.isEmpty() && "false".equalsIgnoreCase(context.getProperty(PROP_DIGEST_AUTH).getValue())) {
-            final String authPass = trimToEmpty(context.getProperty(PROP_BASIC_AUTH_PASSWORD).getValue());
-
-            String credential = Credentials.basic(authUser, authPass);
-            requestBuilder = requestBuilder.header("Authorization", credential);
+        requestBuilder = requestBuilder.url(url).tag(CallTimings.class, new CallTimings());
+        if (settings.basicAuthorization != null) {
+            requestBuilder = requestBuilder.header("Authorization", settings.basicAuthorization);
         }
 
         // set the request method
-        String method = trimToEmpty(context.getProperty(PROP_METHOD).evaluateAttributeExpressions(requestFlowFile).getValue()).toUpperCase();
+        String method = trimToEmpty(settings.method.evaluateAttributeExpressions(requestFlowFile).getValue()).toUpperCase();
         switch (method) {
             case "GET":
                 requestBuilder = requestBuilder.get();
                 break;
             case "POST":
-                RequestBody requestBody = getRequestBodyToSend(session, context, requestFlowFile);
+                RequestBody requestBody = getRequestBodyToSend(session, context, requestFlowFile, bufferBody);
                 requestBuilder = requestBuilder.post(requestBody);
                 break;
             case "PUT":
-                requestBody = getRequestBodyToSend(session, context, requestFlowFile);
+                requestBody = getRequestBodyToSend(session, context, requestFlowFile, bufferBody);
                 requestBuilder = requestBuilder.put(requestBody);
                 break;
             case "PATCH":
-                requestBody = getRequestBodyToSend(session, context, requestFlowFile);
+                requestBody = getRequestBodyToSend(session, context, requestFlowFile, bufferBody);
                 requestBuilder = requestBuilder.patch(requestBody);
                 break;
             case "HEAD":
@@ -972,12 +2146,17 @@ public class CustomInvokeHTTP extends AbstractProcessor {
         return requestBuilder.build();
     }
 
-    private RequestBody getRequestBodyToSend(final ProcessSession session, final ProcessContext context, final FlowFile requestFlowFile) {
-        if(context.getProperty(PROP_SEND_BODY).asBoolean()) {
+    private RequestBody getRequestBodyToSend(final ProcessSession session, final ProcessContext context, final FlowFile requestFlowFile,
+                                             final boolean bufferBody) {
+        final Settings settings = this.settings;
+        if(settings.sendBody) {
+            if (bufferBody) {
+                return getBufferedRequestBody(session, context, requestFlowFile);
+            }
             return new RequestBody() {
                 @Override
                 public MediaType contentType() {
-                    String contentType = context.getProperty(PROP_CONTENT_TYPE).evaluateAttributeExpressions(requestFlowFile).getValue();
+                    String contentType = settings.contentType.evaluateAttributeExpressions(requestFlowFile).getValue();
                     contentType = StringUtils.isBlank(contentType) ? DEFAULT_CONTENT_TYPE : contentType;
                     return MediaType.parse(contentType);
                 }
@@ -989,7 +2168,7 @@ public class CustomInvokeHTTP extends AbstractProcessor {
 
                 @Override
                 public long contentLength(){
-                    return useChunked ? -1 : requestFlowFile.getSize();
+                    return settings.useChunked ? -1 : requestFlowFile.getSize();
                 }
             };
         } else {
@@ -997,52 +2176,49 @@ public class CustomInvokeHTTP extends AbstractProcessor {
         }
     }
 
-    private Request.Builder setHeaderProperties(final ProcessContext context, Request.Builder requestBuilder, final FlowFile requestFlowFile) {
-        // check if we should send the a Date header with the request
-        if (context.getProperty(PROP_DATE_HEADER).asBoolean()) {
-            requestBuilder = requestBuilder.addHeader("Date", DATE_FORMAT.print(System.currentTimeMillis()));
-        }
-
-        final ComponentLog logger = getLogger();
-        for (String headerKey : dynamicPropertyNames) {
-            String headerValue = context.getProperty(headerKey).evaluateAttributeExpressions(requestFlowFile).getValue();
-
-            // don't include any of the excluded headers, log instead
-            if (excludedHeaders.containsKey(headerKey)) {
-                logger.warn(excludedHeaders.get(headerKey), new Object[]{headerKey});
-                continue;
+    /**
+     * Reads the FlowFile content into memory so that the body can be written from a thread other than the one owning the session.
+     */
+    private RequestBody getBufferedRequestBody(final ProcessSession session, final ProcessContext context, final FlowFile requestFlowFile) {
+        final Settings settings = this.settings;
+        String contentType = settings.contentType.evaluateAttributeExpressions(requestFlowFile).getValue();
+        contentType = StringUtils.isBlank(contentType) ? DEFAULT_CONTENT_TYPE : contentType;
+        final MediaType mediaType = MediaType.parse(contentType);
+
+        // only content within the batch buffer size is buffered, which is bounded to fit an array
+        final byte[] content = new byte[(int) requestFlowFile.getSize()];
+        session.read(requestFlowFile, in -> StreamUtils.fillBuffer(in, content));
+
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return mediaType;
             }
-            requestBuilder = requestBuilder.addHeader(headerKey, headerValue);
-        }
 
-        // iterate through the flowfile attributes, adding any attribute that
-        // matches the attributes-to-send pattern. if the pattern is not set
-        // (it's an optional property), ignore that attribute entirely
-        if (regexAttributesToSend != null && requestFlowFile != null) {
-            Map<String, String> attributes = requestFlowFile.getAttributes();
-            Matcher m = regexAttributesToSend.matcher("");
-            for (Map.Entry<String, String> entry : attributes.entrySet()) {
-                String headerKey = trimToEmpty(entry.getKey());
-
-                // don't include any of the ignored attributes
-                if (IGNORED_ATTRIBUTES.contains(headerKey)) {
-                    continue;
-                }
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.write(content);
+            }
 
-                // check if our attribute key matches the pattern
-                // if so, include in the request as a header
-                m.reset(headerKey);
-                if (m.matches()) {
-                    String headerVal = trimToEmpty(entry.getValue());
-                    requestBuilder = requestBuilder.addHeader(headerKey, headerVal);
-                }
+            @Override
+            public long contentLength(){
+                return settings.useChunked ? -1 : content.length;
             }
+        };
+    }
+
+    Request.Builder setHeaderProperties(final ProcessContext context, Request.Builder requestBuilder, final FlowFile requestFlowFile) {
+        final Settings settings = this.settings;
+        // check if we should send the a Date header with the request
+        if (settings.includeDateHeader) {
+            requestBuilder = requestBuilder.addHeader("Date", DateHeader.now());
         }
-        return requestBuilder;
+
+        return settings.headerPlan.addHeaders(requestBuilder, requestFlowFile);
     }
 
 
-    private void route(FlowFile request, FlowFile response, ProcessSession session, ProcessContext context, int statusCode){
+    private void route(FlowFile request, FlowFile response, ProcessSession session, ProcessContext context, Settings settings, int statusCode){
         // check if we should yield the processor
         if (!isSuccess(statusCode) && request == null) {
             context.yield();
@@ -1050,7 +2226,7 @@ public class CustomInvokeHTTP extends AbstractProcessor {
 
         // If the property to output the response flowfile regardless of status code is set then transfer it
         boolean responseSent = false;
-        if (context.getProperty(PROP_OUTPUT_RESPONSE_REGARDLESS).asBoolean()) {
+        if (settings.outputResponseRegardless) {
             session.transfer(response, REL_RESPONSE);
             responseSent = true;
         }
@@ -1076,7 +2252,7 @@ public class CustomInvokeHTTP extends AbstractProcessor {
             // 1xx, 3xx, 4xx -> NO RETRY
         } else {
             if (request != null) {
-                if (context.getProperty(PROP_PENALIZE_NO_RETRY).asBoolean()) {
+                if (settings.penalizeNoRetry) {
                     request = session.penalize(request);
                 }
                 session.transfer(request, REL_NO_RETRY);
@@ -1089,35 +2265,6 @@ public class CustomInvokeHTTP extends AbstractProcessor {
         return statusCode / 100 == 2;
     }
 
-    private void logRequest(ComponentLog logger, Request request) {
-        logger.debug("\nRequest to remote service:\n\t{}\n{}",
-                new Object[]{request.url().url().toExternalForm(), getLogString(request.headers().toMultimap())});
-    }
-
-    private void logResponse(ComponentLog logger, URL url, Response response) {
-        logger.debug("\nResponse from remote service:\n\t{}\n{}",
-                new Object[]{url.toExternalForm(), getLogString(response.headers().toMultimap())});
-    }
-
-    private String getLogString(Map<String, List<String>> map) {
-        StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, List<String>> entry : map.entrySet()) {
-            List<String> list = entry.getValue();
-            if (list.isEmpty()) {
-                continue;
-            }
-            sb.append("\t");
-            sb.append(entry.getKey());
-            sb.append(": ");
-            if (list.size() == 1) {
-                sb.append(list.get(0));
-            } else {
-                sb.append(list.toString());
-            }
-            sb.append("\n");
-        }
-        return sb.toString();
-    }
 
     /**
      * Convert a collection of string values into a overly simple comma separated string.
@@ -1149,7 +2296,7 @@ public class CustomInvokeHTTP extends AbstractProcessor {
     /**
      * Returns a Map of flowfile attributes from the response http headers. Multivalue headers are naively converted to comma separated strings.
      */
-    private Map<String, String> convertAttributesFromHeaders(Response responseHttp){
+    Map<String, String> convertAttributesFromHeaders(Response responseHttp){
         // create a new hashmap to store the values from the connection
         Map<String, String> map = new HashMap<>();
         responseHttp.headers().names().forEach( (key) -> {
@@ -1187,16 +2334,153 @@ public class CustomInvokeHTTP extends AbstractProcessor {
     }
 
     /**
-     * Retrieve the directory in which OkHttp should cache responses. This method opts
-     * to use a temp directory to write the cache, which means that the cache will be written
-     * to a new location each time this processor is scheduled.
+     * Opens the cache OkHttp keeps responses in, or joins the one already open for the same directory and name.
+     * Without a configured directory the cache is written to a temporary directory, so it starts empty every time the
+     * processor is scheduled.
      *
      * Ref: https://github.com/square/okhttp/wiki/Recipes#response-caching
-     *
-     * @return the directory in which the ETag cache should be written
      */
-    private static File getETagCacheDir() {
-        return Files.createTempDir();
+    private Cache openETagCache(final ProcessContext context, final long maxCacheSizeBytes) throws IOException {
+        final String directory = context.getProperty(PROP_ETAG_CACHE_DIRECTORY).evaluateAttributeExpressions().getValue();
+        final File cacheDir;
+        if (directory == null) {
+            temporaryETagCacheDir = Files.createTempDir();
+            cacheDir = temporaryETagCacheDir;
+        } else {
+            final File parent = new File(directory);
+            final long retentionMillis = context.getProperty(PROP_ETAG_CACHE_RETENTION).asTimePeriod(TimeUnit.MILLISECONDS);
+            final int deleted = ETagCacheRegistry.deleteOrphans(parent, retentionMillis);
+            if (deleted > 0) {
+                getLogger().info("Deleted {} ETag caches in {} that were unused for longer than {}",
+                        new Object[]{deleted, parent, context.getProperty(PROP_ETAG_CACHE_RETENTION).getValue()});
+            }
+            final String name = context.getProperty(PROP_ETAG_CACHE_NAME).getValue();
+            cacheDir = new File(parent, name == null ? getIdentifier() : name);
+        }
+        etagCache = ETagCacheRegistry.acquire(cacheDir, maxCacheSizeBytes);
+        return etagCache;
+    }
+
+    private void closeETagCache() throws IOException {
+        final Cache cache = etagCache;
+        etagCache = null;
+        if (cache != null) {
+            ETagCacheRegistry.release(cache);
+        }
+        final File temporaryDir = temporaryETagCacheDir;
+        temporaryETagCacheDir = null;
+        if (temporaryDir != null) {
+            FileUtils.deleteQuietly(temporaryDir);
+        }
+    }
+
+    /**
+     * The configuration the processor was scheduled with, resolved once so that requests only read final fields.
+     * Properties supporting FlowFile Expression Language are kept as property values to be evaluated per FlowFile.
+     */
+    private static final class Settings {
+        private final int batchSize;
+        private final long batchMaxBufferSize;
+        private final boolean asynchronous;
+        private final int maxOutstandingRequests;
+        private final PropertyValue url;
+        // the parsed URL when the property has no Expression Language, otherwise null
+        private final HttpUrl constantUrl;
+        private final String constantUrlString;
+        private final com.google.common.cache.Cache<String, HttpUrl> parsedUrls;
+        private final PropertyValue method;
+        private final PropertyValue contentType;
+        private final PropertyValue putOutputInAttribute;
+        private final boolean putToAttribute;
+        private final int maxAttributeSize;
+        private final boolean addHeadersToRequest;
+        private final boolean timingAttributes;
+        private final RetryPolicy retryPolicy;
+        private final boolean outputResponseRegardless;
+        private final boolean penalizeNoRetry;
+        private final boolean sendBody;
+        private final boolean useChunked;
+        private final boolean includeDateHeader;
+        // the Basic Authorization header, null unless Basic authentication is used
+        private final String basicAuthorization;
+        private final HeaderPlan headerPlan;
+
+        private Settings(final ProcessContext context, final HeaderPlan headerPlan) {
+            batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
+            batchMaxBufferSize = context.getProperty(PROP_BATCH_MAX_BUFFER_SIZE).asDataSize(DataUnit.B).longValue();
+            asynchronous = context.getProperty(PROP_ASYNCHRONOUS).asBoolean();
+            maxOutstandingRequests = context.getProperty(PROP_MAX_OUTSTANDING_REQUESTS).asInteger();
+            url = context.getProperty(PROP_URL);
+            if (url.isExpressionLanguagePresent()) {
+                constantUrlString = null;
+                constantUrl = null;
+            } else {
+                // an invalid URL is left to be reported for every FlowFile, as it is when it comes from Expression Language
+                constantUrlString = trimToEmpty(url.getValue());
+                constantUrl = HttpUrl.parse(constantUrlString);
+            }
+            parsedUrls = CacheBuilder.newBuilder().maximumSize(MAX_PARSED_URLS).recordStats().build();
+            method = context.getProperty(PROP_METHOD);
+            contentType = context.getProperty(PROP_CONTENT_TYPE);
+            putOutputInAttribute = context.getProperty(PROP_PUT_OUTPUT_IN_ATTRIBUTE);
+            putToAttribute = putOutputInAttribute.isSet();
+            maxAttributeSize = context.getProperty(PROP_PUT_ATTRIBUTE_MAX_LENGTH).asInteger();
+            addHeadersToRequest = context.getProperty(PROP_ADD_HEADERS_TO_REQUEST).asBoolean();
+            timingAttributes = context.getProperty(PROP_TIMING_ATTRIBUTES).asBoolean();
+            retryPolicy = new RetryPolicy(context.getProperty(PROP_RETRY_MAX_ATTEMPTS).asInteger(),
+                    context.getProperty(PROP_RETRY_INITIAL_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS),
+                    context.getProperty(PROP_RETRY_MAX_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS),
+                    RetryPolicy.parseStatusCodes(context.getProperty(PROP_RETRY_STATUS_CODES).getValue()),
+                    context.getProperty(PROP_RETRY_NON_IDEMPOTENT).asBoolean());
+            outputResponseRegardless = context.getProperty(PROP_OUTPUT_RESPONSE_REGARDLESS).asBoolean();
+            penalizeNoRetry = context.getProperty(PROP_PENALIZE_NO_RETRY).asBoolean();
+            sendBody = context.getProperty(PROP_SEND_BODY).asBoolean();
+            useChunked = context.getProperty(PROP_USE_CHUNKED_ENCODING).asBoolean();
+            includeDateHeader = context.getProperty(PROP_DATE_HEADER).asBoolean();
+            this.headerPlan = headerPlan;
+
+            // If the username/password properties are set then check if digest auth is being used. NTLM takes the
+            // username and password from the same properties but must not send them in the clear.
+            final String authUser = trimToEmpty(context.getProperty(PROP_BASIC_AUTH_USERNAME).getValue());
+            if (!authUser.isEmpty() && "false".equalsIgnoreCase(context.getProperty(PROP_DIGEST_AUTH).getValue()) && !isNtlmEnabled(context)) {
+                final String authPass = trimToEmpty(context.getProperty(PROP_BASIC_AUTH_PASSWORD).getValue());
+                basicAuthorization = Credentials.basic(authUser, authPass);
+            } else {
+                basicAuthorization = null;
+            }
+        }
+    }
+
+    /**
+     * Mutable state of a single request/response cycle. FlowFile references are replaced with their latest version as
+     * the session modifies them, so that failure handling always operates on the current FlowFile.
+     */
+    private static class Exchange {
+        // Every request/response cycle has a unique transaction id which will be stored as a flowfile attribute.
+        private final UUID txId = UUID.randomUUID();
+        private FlowFile request;
+        private FlowFile response;
+        private HttpUrl url;
+        // the URL as configured, used in attributes and provenance events
+        private String urlString;
+        private Request httpRequest;
+        private long startNanos;
+        private long requestBytes;
+        // set while the request is in flight, so that its completion is recorded once
+        private RequestMetrics requestMetrics;
+        private volatile CompletableFuture<Response> pendingResponse;
+        // the next attempt while the request waits for its backoff
+        private volatile ScheduledFuture<?> pendingRetry;
+        // asynchronous mode only: the session the exchange owns, its call, and whether the session was rolled back
+        private ProcessSession session;
+        private int attempts;
+        private volatile boolean cancelled;
+        private volatile Call call;
+        private boolean rolledBack;
+
+        private Exchange(final FlowFile request) {
+            this.request = request;
+        }
     }
 
     private static class OverrideHostnameVerifier implements HostnameVerifier {
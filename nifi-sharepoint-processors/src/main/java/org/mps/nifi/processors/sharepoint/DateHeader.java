@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+final class DateHeader {
+    /*
+     * The Date header only has a resolution of one second, so the value formatted for the current second is kept and
+     * handed to every request sent within it. Threads noticing the second has changed format the new value and publish
+     * it through a volatile field; two of them doing so at once merely format the same value twice.
+     */
+
+    /**
+     * RFC 2616 Dates (#sec3.3.1): effectively an RFC 822/1123 date string, but HTTP requires it to be in GMT (preferring
+     * the literal 'GMT' string).
+     */
+    private static final DateTimeFormatter RFC_1123 = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private static volatile Formatted current = new Formatted(Long.MIN_VALUE, null);
+
+    private DateHeader() {
+    }
+
+    /**
+     * @return the Date header value for the current time
+     */
+    static String now() {
+        return format(System.currentTimeMillis());
+    }
+
+    static String format(final long epochMillis) {
+        final long epochSecond = Math.floorDiv(epochMillis, 1000L);
+        Formatted formatted = current;
+        if (formatted.epochSecond != epochSecond) {
+            formatted = new Formatted(epochSecond, RFC_1123.format(Instant.ofEpochSecond(epochSecond)));
+            current = formatted;
+        }
+        return formatted.value;
+    }
+
+    private static final class Formatted {
+        private final long epochSecond;
+        private final String value;
+
+        private Formatted(final long epochSecond, final String value) {
+            this.epochSecond = epochSecond;
+            this.value = value;
+        }
+    }
+}
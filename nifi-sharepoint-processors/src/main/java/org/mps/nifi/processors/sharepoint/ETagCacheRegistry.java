@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.Cache;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+final class ETagCacheRegistry {
+    /*
+     * OkHttp's Cache expects to be the only user of its directory, so processors naming the same cache directory share
+     * one instance, which is reference counted and closed when the last of them stops. The cache journal is read when
+     * the cache is opened, on the thread scheduling the processor, rather than by the first request.
+     */
+
+    // DiskLruCache keeps its index in this file, which is also touched on every read of the cache
+    static final String JOURNAL = "journal";
+
+    private static final Map<File, SharedCache> CACHES = new HashMap<>();
+
+    private ETagCacheRegistry() {
+    }
+
+    /**
+     * Opens the cache in the given directory, or returns the instance already open there. The maximum size of a shared
+     * cache is the one given by the processor that opened it.
+     */
+    static synchronized Cache acquire(final File directory, final long maxSize) throws IOException {
+        final File key = directory.getCanonicalFile();
+        SharedCache shared = CACHES.get(key);
+        if (shared == null) {
+            final Cache cache = new Cache(key, maxSize);
+            cache.initialize();
+            shared = new SharedCache(cache);
+            CACHES.put(key, shared);
+        }
+        shared.references++;
+        return shared.cache;
+    }
+
+    static synchronized void release(final Cache cache) throws IOException {
+        final File key = cache.directory();
+        final SharedCache shared = CACHES.get(key);
+        if (shared == null || shared.cache != cache) {
+            return;
+        }
+        if (--shared.references == 0) {
+            CACHES.remove(key);
+            cache.close();
+        }
+    }
+
+    /**
+     * Deletes the cache directories within the given one that are not open and have not been read or written within the
+     * retention period. Directories without a cache journal are never touched.
+     *
+     * @return the number of directories deleted
+     */
+    static synchronized int deleteOrphans(final File parent, final long retentionMillis) throws IOException {
+        final File[] children = parent.listFiles(File::isDirectory);
+        if (children == null) {
+            return 0;
+        }
+        final long cutoff = System.currentTimeMillis() - retentionMillis;
+        int deleted = 0;
+        for (final File child : children) {
+            final File journal = new File(child, JOURNAL);
+            if (journal.isFile() && journal.lastModified() < cutoff && !CACHES.containsKey(child.getCanonicalFile())
+                    && FileUtils.deleteQuietly(child)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static final class SharedCache {
+        private final Cache cache;
+        private int references;
+
+        private SharedCache(final Cache cache) {
+            this.cache = cache;
+        }
+    }
+}
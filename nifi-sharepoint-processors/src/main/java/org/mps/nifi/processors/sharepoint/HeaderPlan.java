@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import okhttp3.Request;
+import org.apache.nifi.components.PropertyValue;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.ProcessContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.apache.commons.lang3.StringUtils.trimToEmpty;
+
+class HeaderPlan {
+    /*
+     * The request headers taken from dynamic properties and FlowFile attributes, worked out once per schedule. Dynamic
+     * properties without Expression Language are evaluated up front, the others are kept to be evaluated per FlowFile,
+     * and excluded headers are dropped. Whether an attribute is sent as a header depends only on its name, so the
+     * decision is remembered per name; the cache is bounded because attribute names are not under our control.
+     */
+
+    static final int MAX_ATTRIBUTE_DECISIONS = 10_000;
+
+    private final String[] constantNames;
+    private final String[] constantValues;
+    private final String[] expressionNames;
+    private final PropertyValue[] expressionValues;
+    private final Pattern attributesToSend;
+    private final Cache<String, Boolean> attributeDecisions;
+
+    private HeaderPlan(final List<String> constantNames, final List<String> constantValues,
+                       final List<String> expressionNames, final List<PropertyValue> expressionValues,
+                       final Pattern attributesToSend) {
+        this.constantNames = constantNames.toArray(new String[0]);
+        this.constantValues = constantValues.toArray(new String[0]);
+        this.expressionNames = expressionNames.toArray(new String[0]);
+        this.expressionValues = expressionValues.toArray(new PropertyValue[0]);
+        this.attributesToSend = attributesToSend;
+        this.attributeDecisions = attributesToSend == null ? null : CacheBuilder.newBuilder().maximumSize(MAX_ATTRIBUTE_DECISIONS).build();
+    }
+
+    static HeaderPlan create(final ProcessContext context, final Collection<String> dynamicPropertyNames, final Pattern attributesToSend,
+                             final Map<String, String> excludedHeaders, final ComponentLog logger) {
+        final List<String> constantNames = new ArrayList<>();
+        final List<String> constantValues = new ArrayList<>();
+        final List<String> expressionNames = new ArrayList<>();
+        final List<PropertyValue> expressionValues = new ArrayList<>();
+        for (String headerKey : dynamicPropertyNames) {
+            // don't include any of the excluded headers, log instead
+            if (excludedHeaders.containsKey(headerKey)) {
+                logger.warn(excludedHeaders.get(headerKey), new Object[]{headerKey});
+                continue;
+            }
+
+            final PropertyValue headerValue = context.getProperty(headerKey);
+            if (headerValue.isExpressionLanguagePresent()) {
+                expressionNames.add(headerKey);
+                expressionValues.add(headerValue);
+            } else {
+                constantNames.add(headerKey);
+                constantValues.add(headerValue.evaluateAttributeExpressions().getValue());
+            }
+        }
+        return new HeaderPlan(constantNames, constantValues, expressionNames, expressionValues, attributesToSend);
+    }
+
+    Request.Builder addHeaders(Request.Builder requestBuilder, final FlowFile requestFlowFile) {
+        for (int i = 0; i < constantNames.length; i++) {
+            requestBuilder = requestBuilder.addHeader(constantNames[i], constantValues[i]);
+        }
+        for (int i = 0; i < expressionNames.length; i++) {
+            final String headerValue = expressionValues[i].evaluateAttributeExpressions(requestFlowFile).getValue();
+            requestBuilder = requestBuilder.addHeader(expressionNames[i], headerValue);
+        }
+
+        // add any attribute that matches the attributes-to-send pattern. if the pattern is not set
+        // (it's an optional property), ignore that attribute entirely
+        if (attributesToSend != null && requestFlowFile != null) {
+            for (Map.Entry<String, String> entry : requestFlowFile.getAttributes().entrySet()) {
+                if (isSentAsHeader(entry.getKey())) {
+                    requestBuilder = requestBuilder.addHeader(trimToEmpty(entry.getKey()), trimToEmpty(entry.getValue()));
+                }
+            }
+        }
+        return requestBuilder;
+    }
+
+    /**
+     * @return the number of attribute names whose decision is remembered
+     */
+    long getAttributeDecisionCount() {
+        return attributeDecisions == null ? 0 : attributeDecisions.size();
+    }
+
+    private boolean isSentAsHeader(final String attributeName) {
+        Boolean sent = attributeDecisions.getIfPresent(attributeName);
+        if (sent == null) {
+            // don't include any of the ignored attributes
+            final String headerKey = trimToEmpty(attributeName);
+            sent = !CustomInvokeHTTP.IGNORED_ATTRIBUTES.contains(headerKey) && attributesToSend.matcher(headerKey).matches();
+            attributeDecisions.put(attributeName, sent);
+        }
+        return sent;
+    }
+}
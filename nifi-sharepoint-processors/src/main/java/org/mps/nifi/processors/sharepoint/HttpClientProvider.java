@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.OkHttpClient;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.controller.ControllerService;
+
+@Tags({"http", "https", "client", "connection", "pool", "mps"})
+@CapabilityDescription("Provides a shared OkHttp client so that several processors reuse one connection pool and dispatcher.")
+public interface HttpClientProvider extends ControllerService {
+
+    /**
+     * Returns a client sharing the dispatcher of the service. Callers derive their own configuration with
+     * {@link OkHttpClient#newBuilder()}, which keeps the connection pool and dispatcher of the returned client.
+     * <p>
+     * NTLM authenticates connections rather than requests, and OkHttp reuses a pooled connection for any request to the same
+     * address whatever its authenticator. Connections are therefore only pooled together for callers passing the same
+     * identity, which must tell apart every set of connection-scoped credentials.
+     *
+     * @param connectionIdentity the credentials connections are authenticated with, or null when they are not
+     * @return a client whose connection pool is shared by the callers passing the same identity, or null when the service
+     * is not enabled
+     */
+    OkHttpClient getHttpClient(String connectionIdentity);
+}
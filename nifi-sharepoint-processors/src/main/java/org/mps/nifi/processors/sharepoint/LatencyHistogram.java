@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+final class LatencyHistogram {
+    /*
+     * Counts values in log-linear buckets, as HdrHistogram does: values below 16 have a bucket each, and every power of
+     * two above is split into 16 buckets of equal width, so a bucket is never wider than 1/16 of the values it holds and
+     * percentiles are reported to within 6.25%. Recording is a single atomic increment, so the histogram can be written
+     * from any number of threads while it is read. Values are microseconds; those beyond 2^41 (about 25 days) are
+     * counted in the last bucket.
+     */
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(final long value) {
+        counts.incrementAndGet(index(value));
+    }
+
+    Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        final int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (magnitude - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest value counted in the bucket
+     */
+    static long highestValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int magnitude = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        final long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        final long width = 1L << (magnitude - SUB_BUCKET_BITS);
+        return (1L << magnitude) + (subBucket + 1) * width - 1;
+    }
+
+    /**
+     * The counts of a histogram at one point in time.
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(final long[] counts) {
+            this.counts = counts;
+            long count = 0;
+            for (final long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.count = count;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the values counted since the earlier snapshot of the same histogram
+         */
+        Snapshot since(final Snapshot earlier) {
+            final long[] difference = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference);
+        }
+
+        /**
+         * @return the highest value of the bucket holding the given quantile, or 0 when nothing was counted
+         */
+        long valueAt(final double quantile) {
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        long getMax() {
+            for (int i = BUCKETS - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
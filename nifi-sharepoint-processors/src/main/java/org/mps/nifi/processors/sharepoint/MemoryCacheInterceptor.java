@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+final class MemoryCacheInterceptor implements Interceptor {
+    /*
+     * Keeps small GET responses in memory in front of OkHttp's disk cache. As an application interceptor it runs before
+     * the disk cache is consulted: a fresh entry is answered without touching the disk, and a stale one is revalidated
+     * with its own ETag or Last-Modified, a 304 being answered from memory. A conditional request is passed through the
+     * disk cache to the network as is. Entries are keyed by URL and request headers, so responses varying on any header
+     * the processor sends are kept apart, and the Date header, which changes on every request, is left out of the key.
+     */
+
+    // the bookkeeping of an entry besides its body, as an estimate for the size bound
+    private static final int ENTRY_OVERHEAD = 512;
+
+    private final Cache<String, Entry> entries;
+    private final long maxEntrySize;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    MemoryCacheInterceptor(final long maxSize, final long maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+        this.entries = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher((String key, Entry entry) -> key.length() * 2 + entry.body.length + ENTRY_OVERHEAD)
+                .build();
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final Request request = chain.request();
+        // requests made conditional by the flow itself are left to the disk cache and the server
+        if (!"GET".equals(request.method()) || request.cacheControl().noStore()
+                || request.header("If-None-Match") != null || request.header("If-Modified-Since") != null) {
+            return chain.proceed(request);
+        }
+
+        requests.increment();
+        final String key = key(request);
+        final Entry entry = entries.getIfPresent(key);
+        if (entry != null && entry.isFresh(request)) {
+            hits.increment();
+            return entry.toResponse(request);
+        }
+
+        final Request conditionalRequest = entry == null ? null : entry.conditionalRequest(request);
+        final Response response = chain.proceed(conditionalRequest == null ? request : conditionalRequest);
+        if (conditionalRequest != null && response.code() == 304) {
+            hits.increment();
+            response.close();
+            final Headers headers = combine(entry.headers, response.headers());
+            final Entry revalidated = new Entry(entry, headers, response.sentRequestAtMillis(), response.receivedResponseAtMillis());
+            entries.put(key, revalidated);
+            return revalidated.toResponse(request);
+        }
+
+        if (!store(key, response)) {
+            entries.invalidate(key);
+        }
+        return response;
+    }
+
+    long getRequestCount() {
+        return requests.sum();
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getEntryCount() {
+        return entries.size();
+    }
+
+    private boolean store(final String key, final Response response) throws IOException {
+        final ResponseBody body = response.body();
+        final CacheControl cacheControl = response.cacheControl();
+        if (response.code() != 200 || body == null || cacheControl.noStore() || "*".equals(response.header("Vary"))
+                || (response.header("ETag") == null && response.header("Last-Modified") == null && cacheControl.maxAgeSeconds() <= 0)
+                || body.contentLength() > maxEntrySize) {
+            return false;
+        }
+        // peeking buffers the body without consuming it, one byte more than the limit tells a body that is too large
+        final byte[] bytes = response.peekBody(maxEntrySize + 1).bytes();
+        if (bytes.length > maxEntrySize) {
+            return false;
+        }
+        entries.put(key, new Entry(response, bytes));
+        return true;
+    }
+
+    /**
+     * @return the URL and the request headers other than Date, which tell apart the responses of a GET
+     */
+    static String key(final Request request) {
+        final Headers headers = request.headers();
+        final StringBuilder key = new StringBuilder(request.url().toString());
+        for (int i = 0; i < headers.size(); i++) {
+            if (!"Date".equalsIgnoreCase(headers.name(i))) {
+                key.append('\n').append(headers.name(i)).append(':').append(headers.value(i));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Updates the stored headers with those of a 304, as RFC 7234 section 4.3.4 asks, leaving the ones describing the
+     * stored body alone.
+     */
+    private static Headers combine(final Headers stored, final Headers notModified) {
+        final Headers.Builder combined = stored.newBuilder();
+        for (final String name : notModified.names()) {
+            if (!"Content-Length".equalsIgnoreCase(name) && !"Content-Encoding".equalsIgnoreCase(name)
+                    && !"Content-Type".equalsIgnoreCase(name)) {
+                combined.removeAll(name);
+                for (final String value : notModified.values(name)) {
+                    combined.add(name, value);
+                }
+            }
+        }
+        return combined.build();
+    }
+
+    private static final class Entry {
+        private final Protocol protocol;
+        private final int code;
+        private final String message;
+        private final Headers headers;
+        private final MediaType contentType;
+        private final byte[] body;
+        private final long sentRequestAtMillis;
+        private final long receivedResponseAtMillis;
+
+        private Entry(final Response response, final byte[] body) {
+            this.protocol = response.protocol();
+            this.code = response.code();
+            this.message = response.message();
+            this.headers = response.headers();
+            this.contentType = response.body().contentType();
+            this.body = body;
+            this.sentRequestAtMillis = response.sentRequestAtMillis();
+            this.receivedResponseAtMillis = response.receivedResponseAtMillis();
+        }
+
+        private Entry(final Entry stored, final Headers headers, final long sentRequestAtMillis, final long receivedResponseAtMillis) {
+            this.protocol = stored.protocol;
+            this.code = stored.code;
+            this.message = stored.message;
+            this.headers = headers;
+            this.contentType = stored.contentType;
+            this.body = stored.body;
+            this.sentRequestAtMillis = sentRequestAtMillis;
+            this.receivedResponseAtMillis = receivedResponseAtMillis;
+        }
+
+        /**
+         * Whether the entry may be answered without asking the server, going by max-age only: heuristic freshness is
+         * left to the disk cache.
+         */
+        private boolean isFresh(final Request request) {
+            final CacheControl responseCaching = CacheControl.parse(headers);
+            if (request.cacheControl().noCache() || responseCaching.noCache() || responseCaching.maxAgeSeconds() <= 0) {
+                return false;
+            }
+            final long ageMillis = System.currentTimeMillis() - receivedResponseAtMillis;
+            return ageMillis < TimeUnit.SECONDS.toMillis(responseCaching.maxAgeSeconds());
+        }
+
+        private Request conditionalRequest(final Request request) {
+            final String eTag = headers.get("ETag");
+            if (eTag != null) {
+                return request.newBuilder().header("If-None-Match", eTag).build();
+            }
+            final String lastModified = headers.get("Last-Modified");
+            if (lastModified != null) {
+                return request.newBuilder().header("If-Modified-Since", lastModified).build();
+            }
+            return null;
+        }
+
+        private Response toResponse(final Request request) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(protocol)
+                    .code(code)
+                    .message(message)
+                    .headers(headers)
+                    .body(ResponseBody.create(contentType, body))
+                    .sentRequestAtMillis(sentRequestAtMillis)
+                    .receivedResponseAtMillis(receivedResponseAtMillis)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+final class RequestMetrics {
+    /*
+     * Request latency is kept in one histogram per host, method and outcome, the outcome being the status class of the
+     * response or 'failed' when no response was received. Recording takes a map lookup and a few atomic increments.
+     * Hosts are not known in advance, so the number of histograms is bounded and requests beyond it share one. Summaries
+     * cover the requests completed since the previous summary, taken as the difference between histogram snapshots.
+     * The phases of the calls, as reported by OkHttp, are kept in histograms of their own across hosts.
+     */
+
+    static final int MAX_HISTOGRAMS = 100;
+    static final String OTHER = "other";
+    static final String FAILED = "failed";
+    static final String PHASE_PREFIX = "phase ";
+
+    private static final String[] STATUS_CLASSES = {"0xx", "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> phases = new ConcurrentHashMap<>();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsReused = new LongAdder();
+    private final LongAdder authRoundTrips = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final long summaryIntervalNanos;
+    private final AtomicLong nextSummaryNanos;
+
+    // the state as of the previous summary, guarded by this
+    private final Map<String, LatencyHistogram.Snapshot> summarized = new HashMap<>();
+
+    RequestMetrics(final long summaryIntervalNanos) {
+        this.summaryIntervalNanos = summaryIntervalNanos;
+        this.nextSummaryNanos = new AtomicLong(System.nanoTime() + summaryIntervalNanos);
+    }
+
+    static String outcome(final int statusCode) {
+        final int statusClass = statusCode / 100;
+        return statusClass >= 0 && statusClass < STATUS_CLASSES.length ? STATUS_CLASSES[statusClass] : OTHER;
+    }
+
+    void started(final long requestBytes) {
+        inFlight.increment();
+        bytesSent.add(requestBytes);
+    }
+
+    void completed(final String host, final String method, final String outcome, final long nanos) {
+        inFlight.decrement();
+        histogram(host + ' ' + method + ' ' + outcome).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Takes back a request that was started but never sent, leaving its latency out of the histograms.
+     */
+    void notSent(final long requestBytes) {
+        inFlight.decrement();
+        bytesSent.add(-requestBytes);
+    }
+
+    /**
+     * Records the phases of a call that took place.
+     */
+    void phases(final CallTimings timings) {
+        if (timings.getDnsLookups() > 0) {
+            phase("dns", timings.getDnsNanos());
+        }
+        if (timings.getConnections() > 0) {
+            connectionsOpened.add(timings.getConnections());
+            phase("connect", timings.getConnectNanos());
+        }
+        if (timings.getTlsHandshakes() > 0) {
+            phase("tls", timings.getTlsNanos());
+        }
+        if (timings.getAuthRoundTrips() > 0) {
+            authRoundTrips.add(timings.getAuthRoundTrips());
+            phase("auth", timings.getAuthNanos());
+        }
+        if (timings.getTimeToFirstByteNanos() >= 0) {
+            phase("ttfb", timings.getTimeToFirstByteNanos());
+        }
+        if (Boolean.TRUE.equals(timings.isConnectionReused())) {
+            connectionsReused.increment();
+        }
+    }
+
+    void received(final long responseBytes) {
+        bytesReceived.add(responseBytes);
+    }
+
+    long getInFlight() {
+        return inFlight.sum();
+    }
+
+    long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    long getConnectionsReused() {
+        return connectionsReused.sum();
+    }
+
+    long getAuthRoundTrips() {
+        return authRoundTrips.sum();
+    }
+
+    /**
+     * @return whether the summary interval elapsed, true for a single caller per interval
+     */
+    boolean isSummaryDue(final long nowNanos) {
+        final long next = nextSummaryNanos.get();
+        return nowNanos - next >= 0 && nextSummaryNanos.compareAndSet(next, nowNanos + summaryIntervalNanos);
+    }
+
+    /**
+     * @return the latency of the requests completed since the previous summary by host, method and outcome, and that of
+     * their phases prefixed with {@link #PHASE_PREFIX}, leaving out those that saw no requests
+     */
+    synchronized Map<String, LatencyHistogram.Snapshot> summarize() {
+        final Map<String, LatencyHistogram.Snapshot> interval = new TreeMap<>();
+        summarize(histograms, "", interval);
+        summarize(phases, PHASE_PREFIX, interval);
+        return interval;
+    }
+
+    private void summarize(final Map<String, LatencyHistogram> histograms, final String prefix, final Map<String, LatencyHistogram.Snapshot> interval) {
+        for (final Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            final String key = prefix + entry.getKey();
+            final LatencyHistogram.Snapshot current = entry.getValue().snapshot();
+            final LatencyHistogram.Snapshot previous = summarized.put(key, current);
+            final LatencyHistogram.Snapshot since = previous == null ? current : current.since(previous);
+            if (since.getCount() > 0) {
+                interval.put(key, since);
+            }
+        }
+    }
+
+    private void phase(final String phase, final long nanos) {
+        phases.computeIfAbsent(phase, k -> new LatencyHistogram()).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    private LatencyHistogram histogram(final String key) {
+        final LatencyHistogram histogram = histograms.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+        return histograms.computeIfAbsent(histograms.size() < MAX_HISTOGRAMS ? key : OTHER, k -> new LatencyHistogram());
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.nifi.logging.ComponentLog;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+final class RequestTracer implements Interceptor {
+    /*
+     * Records the request and response headers of selected calls: either one in every so many calls, decided before the
+     * call is made so that calls not sampled cost a counter increment, or the calls that fail or take too long, which
+     * are only formatted once they completed. Traces are kept in a ring buffer holding the most recent ones, which is
+     * logged when the processor stops. While it runs, the traces made since they were last logged can be logged at an
+     * interval, and every trace is logged as it is made when debug logging is enabled. Credentials in authentication and
+     * cookie headers are never recorded.
+     */
+
+    private static final String REDACTED = "<redacted>";
+
+    private final ComponentLog logger;
+    private final long sampleOneIn;
+    private final long slowThresholdNanos;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicReferenceArray<String> traces;
+    private final AtomicLong traced = new AtomicLong();
+    // how many traces had been made when they were last logged at the interval
+    private final AtomicLong logged = new AtomicLong();
+    private final long logIntervalNanos;
+    private final AtomicLong nextLogNanos;
+
+    private RequestTracer(final ComponentLog logger, final int capacity, final long sampleOneIn, final long slowThresholdNanos,
+                          final long logIntervalNanos) {
+        this.logger = logger;
+        this.traces = new AtomicReferenceArray<>(capacity);
+        this.sampleOneIn = sampleOneIn;
+        this.slowThresholdNanos = slowThresholdNanos;
+        this.logIntervalNanos = logIntervalNanos;
+        this.nextLogNanos = new AtomicLong(System.nanoTime() + logIntervalNanos);
+    }
+
+    /**
+     * @return a tracer recording one call in every {@code oneIn}, logging the new traces at the interval unless it is 0
+     */
+    static RequestTracer sampling(final ComponentLog logger, final int capacity, final long oneIn, final long logIntervalNanos) {
+        return new RequestTracer(logger, capacity, oneIn, 0, logIntervalNanos);
+    }
+
+    /**
+     * @return a tracer recording the calls that fail, get a 4xx or 5xx status, or take longer than the threshold, logging
+     * the new traces at the interval unless it is 0
+     */
+    static RequestTracer slowOrFailed(final ComponentLog logger, final int capacity, final long thresholdNanos, final long logIntervalNanos) {
+        return new RequestTracer(logger, capacity, 0, thresholdNanos, logIntervalNanos);
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        final long sample = calls.incrementAndGet();
+        if (sampleOneIn > 0 && sample % sampleOneIn != 0) {
+            return chain.proceed(chain.request());
+        }
+
+        final long startMillis = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        final Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (final IOException | RuntimeException e) {
+            record(trace(startMillis, System.nanoTime() - startNanos, chain.request(), null, e));
+            throw e;
+        }
+        final long nanos = System.nanoTime() - startNanos;
+        if (sampleOneIn > 0 || nanos > slowThresholdNanos || response.code() >= 400) {
+            // the request that got the response carries the headers added by authenticators and redirects
+            record(trace(startMillis, nanos, response.request(), response, null));
+        }
+        return response;
+    }
+
+    /**
+     * @return the traces held, oldest first
+     */
+    List<String> getTraces() {
+        return getTraces(0, traced.get());
+    }
+
+    /**
+     * @return the traces held among those numbered from {@code start} to {@code end}, oldest first
+     */
+    private List<String> getTraces(final long start, final long end) {
+        final List<String> held = new ArrayList<>();
+        for (long i = Math.max(start, end - traces.length()); i < end; i++) {
+            final String trace = traces.get((int) (i % traces.length()));
+            if (trace != null) {
+                held.add(trace);
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Logs the traces held, the buffer being left as is.
+     */
+    void dump() {
+        final List<String> held = getTraces();
+        if (!held.isEmpty()) {
+            logger.info("The last {} request traces, oldest first:\n{}", new Object[]{held.size(), String.join("\n", held)});
+        }
+    }
+
+    /**
+     * Whether the traces are to be logged, which is once per interval when one was given.
+     */
+    boolean isLogDue(final long nowNanos) {
+        if (logIntervalNanos <= 0) {
+            return false;
+        }
+        final long next = nextLogNanos.get();
+        return nowNanos - next >= 0 && nextLogNanos.compareAndSet(next, nowNanos + logIntervalNanos);
+    }
+
+    /**
+     * Logs the traces made since they were last logged by this method that are still held.
+     */
+    void logRecent() {
+        final long end = traced.get();
+        final List<String> held = getTraces(logged.getAndSet(end), end);
+        if (!held.isEmpty()) {
+            logger.info("{} request traces made since the previous ones were logged, oldest first:\n{}",
+                    new Object[]{held.size(), String.join("\n", held)});
+        }
+    }
+
+    private void record(final String trace) {
+        traces.set((int) (traced.getAndIncrement() % traces.length()), trace);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Request trace:\n{}", new Object[]{trace});
+        }
+    }
+
+    private static String trace(final long startMillis, final long nanos, final Request request, final Response response, final Exception failure) {
+        final StringBuilder trace = new StringBuilder(512);
+        trace.append(Instant.ofEpochMilli(startMillis)).append(" --> ").append(request.method()).append(' ').append(request.url()).append('\n');
+        appendHeaders(trace, request.headers());
+        trace.append("<-- ");
+        if (response == null) {
+            trace.append("failed with ").append(failure);
+        } else {
+            trace.append(response.code()).append(' ').append(response.message()).append(' ').append(response.protocol());
+            int priorResponses = 0;
+            for (Response prior = response.priorResponse(); prior != null; prior = prior.priorResponse()) {
+                priorResponses++;
+            }
+            if (priorResponses > 0) {
+                trace.append(" after ").append(priorResponses).append(" prior responses");
+            }
+        }
+        trace.append(" (").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms)\n");
+        if (response != null) {
+            appendHeaders(trace, response.headers());
+        }
+        return trace.toString();
+    }
+
+    /**
+     * Appends one tab-indented line per header, leaving out credentials.
+     */
+    static StringBuilder appendHeaders(final StringBuilder sb, final Headers headers) {
+        for (int i = 0; i < headers.size(); i++) {
+            final String name = headers.name(i);
+            sb.append('\t').append(name).append(": ");
+            appendValue(sb, name, headers.value(i));
+            sb.append('\n');
+        }
+        return sb;
+    }
+
+    private static void appendValue(final StringBuilder sb, final String name, final String value) {
+        if ("Authorization".equalsIgnoreCase(name) || "Proxy-Authorization".equalsIgnoreCase(name)
+                || "WWW-Authenticate".equalsIgnoreCase(name) || "Proxy-Authenticate".equalsIgnoreCase(name)) {
+            // the scheme tells how far an NTLM or Digest handshake went, the rest are credentials or challenges
+            final int space = value.indexOf(' ');
+            if (space > 0) {
+                sb.append(value, 0, space + 1);
+            }
+            sb.append(REDACTED);
+        } else if ("Cookie".equalsIgnoreCase(name) || "Set-Cookie".equalsIgnoreCase(name)) {
+            sb.append(REDACTED);
+        } else {
+            sb.append(value);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.net.UnknownServiceException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+final class RetryPolicy {
+    /*
+     * Decides whether a request is sent again and after how long. Requests are retried on the configured status codes and
+     * on I/O failures other than those a new attempt would run into again: TLS failures, protocol violations and cleartext
+     * being refused. POST, PATCH and other methods that are not idempotent could be carried out twice by the server, so
+     * they are only retried when that is allowed, or when the connection failed and the request never left. The backoff
+     * doubles with each attempt up to a maximum, and half of it is random so that requests failing together do not come
+     * back together; a longer Retry-After from the server is honoured up to the same maximum.
+     */
+
+    static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE")));
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Set<Integer> statusCodes;
+    private final boolean retryNonIdempotent;
+
+    RetryPolicy(final int maxAttempts, final long initialBackoffMillis, final long maxBackoffMillis, final Set<Integer> statusCodes,
+                final boolean retryNonIdempotent) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.statusCodes = statusCodes;
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    /**
+     * @return the status codes in a comma separated list
+     */
+    static Set<Integer> parseStatusCodes(final String statusCodes) {
+        final Set<Integer> parsed = new HashSet<>();
+        if (statusCodes != null) {
+            for (final String statusCode : statusCodes.split(",")) {
+                if (!statusCode.trim().isEmpty()) {
+                    parsed.add(Integer.valueOf(statusCode.trim()));
+                }
+            }
+        }
+        return Collections.unmodifiableSet(parsed);
+    }
+
+    boolean isEnabled() {
+        return maxAttempts > 1;
+    }
+
+    /**
+     * @param attempts the number of times the request was sent
+     */
+    boolean shouldRetry(final int attempts, final Request request, final Response response) {
+        return attempts < maxAttempts && statusCodes.contains(response.code())
+                && (retryNonIdempotent || IDEMPOTENT_METHODS.contains(request.method()));
+    }
+
+    /**
+     * @param attempts the number of times the request was sent
+     */
+    boolean shouldRetry(final int attempts, final Request request, final IOException failure) {
+        if (attempts >= maxAttempts || failure instanceof SSLException || failure instanceof ProtocolException
+                || failure instanceof UnknownServiceException) {
+            return false;
+        }
+        return retryNonIdempotent || IDEMPOTENT_METHODS.contains(request.method()) || isConnectFailure(failure);
+    }
+
+    /**
+     * @param attempts the number of times the request was sent
+     * @param response the response answering the last attempt, or null when it failed
+     * @return how long to wait before the next attempt
+     */
+    long backoffMillis(final int attempts, final Response response) {
+        long ceiling = initialBackoffMillis;
+        for (int i = 1; i < attempts && ceiling < maxBackoffMillis; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, maxBackoffMillis);
+        final long backoff = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling - ceiling / 2 + 1);
+        return Math.max(backoff, Math.min(maxBackoffMillis, retryAfterMillis(response)));
+    }
+
+    private static boolean isConnectFailure(final IOException failure) {
+        return failure instanceof ConnectException || failure instanceof NoRouteToHostException || failure instanceof UnknownHostException;
+    }
+
+    /**
+     * @return the delay asked for by a Retry-After header in seconds, 0 when there is none or it holds a date
+     */
+    private static long retryAfterMillis(final Response response) {
+        final String retryAfter = response == null ? null : response.header("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            } catch (final NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+}
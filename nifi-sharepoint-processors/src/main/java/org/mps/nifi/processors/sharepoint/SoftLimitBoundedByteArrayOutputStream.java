@@ -18,28 +18,38 @@
 package org.mps.nifi.processors.sharepoint;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 public class SoftLimitBoundedByteArrayOutputStream extends OutputStream {
     /*
      * This Bounded Array Output Stream (BAOS) allows the user to write to the output stream up to a specified limit.
      * Higher than that limit the BAOS will silently return and not put more into the buffer. It also will not throw an error.
      * This effectively truncates the stream for the user to fit into a bounded array.
+     *
+     * The buffer starts small and grows as data is written, doubling up to the limit, so a large limit only costs
+     * memory for what is actually written. Once grown, the buffer is kept across resets so the stream can be reused.
      */
 
-    private final byte[] buffer;
+    static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private byte[] buffer;
+    private final int defaultLimit;
     private int limit;
     private int count;
+    private boolean truncated;
 
-    public SoftLimitBoundedByteArrayOutputStream(int capacity) {
-        this(capacity, capacity);
+    public SoftLimitBoundedByteArrayOutputStream(int limit) {
+        this(Math.min(DEFAULT_INITIAL_CAPACITY, Math.max(limit, 0)), limit);
     }
 
-    public SoftLimitBoundedByteArrayOutputStream(int capacity, int limit) {
-        if ((capacity < limit) || (capacity | limit) < 0) {
+    public SoftLimitBoundedByteArrayOutputStream(int initialCapacity, int limit) {
+        if ((initialCapacity > limit) || (initialCapacity | limit) < 0) {
             throw new IllegalArgumentException("Invalid capacity/limit");
         }
-        this.buffer = new byte[capacity];
+        this.buffer = new byte[initialCapacity];
+        this.defaultLimit = limit;
         this.limit = limit;
         this.count = 0;
     }
@@ -47,8 +57,10 @@ public class SoftLimitBoundedByteArrayOutputStream extends OutputStream {
     @Override
     public void write(int b) throws IOException {
         if (count >= limit) {
+            truncated = true;
             return;
         }
+        ensureCapacity(count + 1);
         buffer[count++] = (byte) b;
     }
 
@@ -62,33 +74,66 @@ public class SoftLimitBoundedByteArrayOutputStream extends OutputStream {
         }
 
         if (count + len > limit) {
+            truncated = true;
             len = limit-count;
-            if(len == 0){
+            if(len <= 0){
                 return;
             }
         }
 
+        ensureCapacity(count + len);
         System.arraycopy(b, off, buffer, count, len);
         count += len;
     }
 
+    /**
+     * Reads the stream until it ends or the limit is reached, never reading past the limit.
+     *
+     * @return the number of bytes held after reading
+     */
+    public int fillFrom(InputStream in) throws IOException {
+        while (count < limit) {
+            if (count == buffer.length) {
+                ensureCapacity(count + 1);
+            }
+            final int read = in.read(buffer, count, Math.min(buffer.length, limit) - count);
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+        // whether the stream had more to give is unknown without reading past the limit, so assume it had
+        truncated |= count == limit;
+        return count;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > buffer.length) {
+            final long doubled = (long) buffer.length << 1;
+            buffer = Arrays.copyOf(buffer, (int) Math.min(Math.max(required, doubled), limit));
+        }
+    }
+
     public void reset(int newlim) {
-        if (newlim > buffer.length) {
-            throw new IndexOutOfBoundsException("Limit exceeds buffer size");
+        if (newlim < 0) {
+            throw new IndexOutOfBoundsException("Limit must not be negative");
         }
         this.limit = newlim;
         this.count = 0;
+        this.truncated = false;
     }
 
     public void reset() {
-        this.limit = buffer.length;
-        this.count = 0;
+        reset(defaultLimit);
     }
 
     public int getLimit() {
         return limit;
     }
 
+    /**
+     * @return the backing array, of which the first {@link #size()} bytes are valid
+     */
     public byte[] getBuffer() {
         return buffer;
     }
@@ -96,4 +141,11 @@ public class SoftLimitBoundedByteArrayOutputStream extends OutputStream {
     public int size() {
         return count;
     }
+
+    /**
+     * @return whether bytes were dropped at the limit, in which case the buffer may end in the middle of a character
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
 }
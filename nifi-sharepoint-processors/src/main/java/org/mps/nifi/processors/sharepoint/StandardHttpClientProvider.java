@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+@Tags({"http", "https", "client", "connection", "pool", "mps", "ntlm", "sharepoint"})
+@CapabilityDescription("Owns the OkHttp dispatcher and connection pools shared by every processor referencing this service, so that keep-alive "
+        + "connections, TLS sessions and NTLM-authenticated sockets are reused across the whole flow. NTLM authenticates connections "
+        + "rather than requests, so processors using NTLM share a connection pool only with processors using the same domain, user "
+        + "and password, and processors not using NTLM never get a connection authenticated by another processor.")
+public class StandardHttpClientProvider extends AbstractControllerService implements HttpClientProvider {
+
+    private static final List<PropertyDescriptor> PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+            CustomInvokeHTTP.PROP_MAX_IDLE_CONNECTIONS,
+            CustomInvokeHTTP.PROP_KEEP_ALIVE_DURATION,
+            CustomInvokeHTTP.PROP_MAX_REQUESTS,
+            CustomInvokeHTTP.PROP_MAX_REQUESTS_PER_HOST));
+
+    // the client for connections that are not authenticated, whose dispatcher every client shares
+    private volatile OkHttpClient httpClient;
+    // a client with a connection pool of its own for each set of credentials connections are authenticated with
+    private final ConcurrentMap<String, OkHttpClient> authenticatedClients = new ConcurrentHashMap<>();
+    private volatile int maxIdleConnections;
+    private volatile long keepAliveMillis;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return PROPERTIES;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        maxIdleConnections = context.getProperty(CustomInvokeHTTP.PROP_MAX_IDLE_CONNECTIONS).asInteger();
+        keepAliveMillis = context.getProperty(CustomInvokeHTTP.PROP_KEEP_ALIVE_DURATION).asTimePeriod(TimeUnit.MILLISECONDS);
+
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(context.getProperty(CustomInvokeHTTP.PROP_MAX_REQUESTS).asInteger());
+        dispatcher.setMaxRequestsPerHost(context.getProperty(CustomInvokeHTTP.PROP_MAX_REQUESTS_PER_HOST).asInteger());
+
+        httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    @OnDisabled
+    public void onDisabled() {
+        final OkHttpClient client = httpClient;
+        httpClient = null;
+        for (final OkHttpClient authenticatedClient : authenticatedClients.values()) {
+            authenticatedClient.connectionPool().evictAll();
+        }
+        authenticatedClients.clear();
+        if (client != null) {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    @Override
+    public OkHttpClient getHttpClient(final String connectionIdentity) {
+        final OkHttpClient client = httpClient;
+        if (client == null || connectionIdentity == null) {
+            return client;
+        }
+        return authenticatedClients.computeIfAbsent(connectionIdentity, identity -> client.newBuilder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS))
+                .build());
+    }
+
+    /**
+     * @return the number of connection pools kept for authenticated connections
+     */
+    int getAuthenticatedPoolCount() {
+        return authenticatedClients.size();
+    }
+}
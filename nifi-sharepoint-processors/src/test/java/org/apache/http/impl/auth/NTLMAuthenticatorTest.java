@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.http.impl.auth;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NTLMAuthenticatorTest {
+
+    private static final int THREADS = 32;
+    private static final int REQUESTS_PER_THREAD = 50;
+
+    @Test
+    public void testParseChallenge() {
+        assertEquals("", NTLMAuthenticator.parseChallenge(Collections.singletonList("NTLM")));
+        assertEquals("", NTLMAuthenticator.parseChallenge(Arrays.asList("Negotiate", "NTLM")));
+        assertEquals("", NTLMAuthenticator.parseChallenge(Collections.singletonList("Negotiate, NTLM")));
+        assertEquals("TlRMTVNTUAACAAAA", NTLMAuthenticator.parseChallenge(Collections.singletonList("Negotiate, ntlm TlRMTVNTUAACAAAA")));
+        assertEquals("TlRMTVNTUAACAAAA", NTLMAuthenticator.parseChallenge(Arrays.asList("Negotiate", "NTLM  TlRMTVNTUAACAAAA ")));
+        assertNull(NTLMAuthenticator.parseChallenge(Arrays.asList("Negotiate", "Basic realm=\"CORP\"")));
+        assertNull(NTLMAuthenticator.parseChallenge(Collections.emptyList()));
+    }
+
+    @Test
+    public void testSentMessageType() {
+        final NTLMAuthenticator authenticator = new NTLMAuthenticator("User", "Password", "CORP");
+        final Request request = new Request.Builder().url("http://localhost/").build();
+        assertEquals(0, NTLMAuthenticator.sentMessageType(request));
+        assertEquals(0, NTLMAuthenticator.sentMessageType(request.newBuilder().header("Authorization", "Basic dXNlcjpwYXNz").build()));
+        assertEquals(1, NTLMAuthenticator.sentMessageType(
+                request.newBuilder().header("Authorization", "NTLM " + authenticator.getType1Message()).build()));
+    }
+
+    @Test
+    public void testConcurrentHandshakesAcrossRoutes() throws Exception {
+        final NTLMAuthenticator authenticator = new NTLMAuthenticator("User", "Password", "CORP");
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .authenticator(authenticator)
+                .addNetworkInterceptor(new NTLMConnectionInterceptor(authenticator))
+                .build();
+
+        try (NTLMStandInServer first = new NTLMStandInServer("User", "Password", THREADS);
+             NTLMStandInServer second = new NTLMStandInServer("User", "Password", THREADS)) {
+            final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            try {
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<Void>> futures = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    final String url = i % 2 == 0 ? first.url() : second.url();
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                            try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                                assertEquals(200, response.code());
+                                assertEquals(NTLMStandInServer.BODY, response.body().string());
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<Void> future : futures) {
+                    future.get(2, TimeUnit.MINUTES);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            final int requests = THREADS * REQUESTS_PER_THREAD;
+            assertEquals(requests, first.getAuthenticatedRequests() + second.getAuthenticatedRequests());
+            // every connection is authenticated once and then reused, so there are far fewer handshakes than requests
+            final int handshakes = first.getType3Messages() + second.getType3Messages();
+            assertTrue("Expected connections to be reused, got " + handshakes + " handshakes", handshakes < requests);
+            assertEquals(handshakes, authenticator.getHandshakeCount());
+            assertEquals(0, first.getRejectedType3Messages() + second.getRejectedType3Messages());
+            assertEquals(0, authenticator.getFailedHandshakeCount());
+            // the Type 1 is sent preemptively, so the server never has to challenge a bare request
+            assertEquals(0, first.getChallenges() + second.getChallenges());
+        } finally {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    @Test
+    public void testRejectedCredentialsDoNotLoop() throws Exception {
+        final NTLMAuthenticator authenticator = new NTLMAuthenticator("User", "Wrong", "CORP");
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .authenticator(authenticator)
+                .build();
+
+        try (NTLMStandInServer server = new NTLMStandInServer("User", "Password", 4);
+             Response response = client.newCall(new Request.Builder().url(server.url()).build()).execute()) {
+            assertEquals(401, response.code());
+            assertEquals(1, server.getType3Messages());
+            assertEquals(1, server.getRejectedType3Messages());
+            assertEquals(1, authenticator.getHandshakeCount());
+            assertEquals(1, authenticator.getFailedHandshakeCount());
+        } finally {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+}
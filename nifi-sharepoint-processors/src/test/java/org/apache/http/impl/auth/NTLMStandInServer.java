@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.http.impl.auth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local server that challenges like IIS does: a request on a connection that has not completed the NTLM handshake is
+ * answered with a bare challenge next to Negotiate, a Type 1 with an NTLMv2 Type 2, and a Type 3 whose NTLMv2 response
+ * checks out against the configured password completes the handshake for the connection. Connections are told apart by
+ * the client's address and port.
+ */
+public class NTLMStandInServer implements Closeable {
+    public static final String BODY = "authenticated";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String user;
+    private final String password;
+    private final ConcurrentMap<String, PublicNTLMEngineImpl.CredentialHashes> credentials = new ConcurrentHashMap<>();
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private final Set<InetSocketAddress> authenticatedConnections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger challenges = new AtomicInteger();
+    private final AtomicInteger type3Messages = new AtomicInteger();
+    private final AtomicInteger rejectedType3Messages = new AtomicInteger();
+    private final AtomicInteger authenticatedRequests = new AtomicInteger();
+
+    /**
+     * @param user the only user the server knows, matched regardless of case as Windows does
+     * @param password the password of that user
+     * @param threads the number of threads serving requests
+     */
+    public NTLMStandInServer(String user, String password, int threads) throws IOException {
+        this.user = user;
+        this.password = password;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return the number of distinct connections requests arrived on
+     */
+    public int getConnections() {
+        return connections.size();
+    }
+
+    /**
+     * @return the number of requests answered with a bare challenge because they carried no credentials
+     */
+    public int getChallenges() {
+        return challenges.get();
+    }
+
+    public int getType3Messages() {
+        return type3Messages.get();
+    }
+
+    public int getRejectedType3Messages() {
+        return rejectedType3Messages.get();
+    }
+
+    public int getAuthenticatedRequests() {
+        return authenticatedRequests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // drain the request so the connection can be reused
+            }
+        }
+
+        final InetSocketAddress connection = exchange.getRemoteAddress();
+        connections.add(connection);
+        final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        // credentials of any other scheme are ignored, as IIS does when only NTLM is enabled
+        if (authorization == null || !authorization.startsWith("NTLM ")) {
+            if (authenticatedConnections.contains(connection)) {
+                ok(exchange);
+            } else {
+                challenges.incrementAndGet();
+                challenge(exchange);
+            }
+            return;
+        }
+
+        final byte[] message = Base64.getDecoder().decode(authorization.substring("NTLM ".length()));
+        switch (message[8]) {
+            case 1:
+                authenticatedConnections.remove(connection);
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Negotiate, NTLM " + Type2Messages.create(true));
+                unauthorized(exchange);
+                break;
+            case 3:
+                type3Messages.incrementAndGet();
+                if (isValid(message)) {
+                    authenticatedConnections.add(connection);
+                    ok(exchange);
+                } else {
+                    rejectedType3Messages.incrementAndGet();
+                    challenge(exchange);
+                }
+                break;
+            default:
+                exchange.sendResponseHeaders(400, -1);
+                exchange.close();
+        }
+    }
+
+    /**
+     * Checks the NTLMv2 response of a Type 3 the way a domain controller would: the first 16 bytes must be the
+     * HMAC-MD5 of the server challenge and the client blob that follows them, keyed with the NTLMv2 hash of the user.
+     */
+    private boolean isValid(byte[] type3) {
+        final String messageUser = new String(securityBuffer(type3, 36), StandardCharsets.UTF_16LE);
+        final String messageDomain = new String(securityBuffer(type3, 28), StandardCharsets.UTF_16LE);
+        final byte[] ntResponse = securityBuffer(type3, 20);
+        if (!user.equalsIgnoreCase(messageUser) || ntResponse.length <= 24) {
+            return false;
+        }
+
+        final byte[] blob = Arrays.copyOfRange(ntResponse, 16, ntResponse.length);
+        final byte[] challengeAndBlob = new byte[Type2Messages.SERVER_CHALLENGE.length + blob.length];
+        System.arraycopy(Type2Messages.SERVER_CHALLENGE, 0, challengeAndBlob, 0, Type2Messages.SERVER_CHALLENGE.length);
+        System.arraycopy(blob, 0, challengeAndBlob, Type2Messages.SERVER_CHALLENGE.length, blob.length);
+        try {
+            final PublicNTLMEngineImpl.CredentialHashes hashes = credentials.computeIfAbsent(messageDomain + '\\' + messageUser,
+                    key -> new PublicNTLMEngineImpl.CredentialHashes(messageDomain, messageUser, password));
+            final byte[] expected = PublicNTLMEngineImpl.hmacMD5(challengeAndBlob, hashes.getNTLMv2Hash());
+            return MessageDigest.isEqual(expected, Arrays.copyOf(ntResponse, 16));
+        } catch (NTLMEngineException e) {
+            return false;
+        }
+    }
+
+    private static byte[] securityBuffer(byte[] message, int position) {
+        final ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+        final int length = buffer.getShort(position) & 0xffff;
+        final int offset = buffer.getInt(position + 4);
+        return Arrays.copyOfRange(message, offset, offset + length);
+    }
+
+    private void ok(HttpExchange exchange) throws IOException {
+        authenticatedRequests.incrementAndGet();
+        final byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void challenge(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("WWW-Authenticate", "Negotiate");
+        exchange.getResponseHeaders().add("WWW-Authenticate", "NTLM");
+        unauthorized(exchange);
+    }
+
+    private static void unauthorized(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(401, -1);
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
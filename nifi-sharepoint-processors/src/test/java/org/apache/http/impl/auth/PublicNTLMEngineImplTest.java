@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.http.impl.auth;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PublicNTLMEngineImplTest {
+
+    private static final int THREADS = 32;
+    private static final int ITERATIONS = 200;
+
+    private static final byte[] CHALLENGE = {0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef};
+    private static final byte[] CLIENT_CHALLENGE = {(byte) 0xaa, (byte) 0xaa, (byte) 0xaa, (byte) 0xaa, (byte) 0xaa, (byte) 0xaa, (byte) 0xaa, (byte) 0xaa};
+    private static final byte[] CLIENT_CHALLENGE_2 = {0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55};
+    private static final byte[] SECONDARY_KEY = {
+            0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55, 0x55};
+    private static final byte[] TIMESTAMP = {0, 0, 0, 0, 0, 0, 0, 0};
+    private static final byte[] TARGET_INFO = {0x02, 0x00, 0x08, 0x00, 'C', 0, 'O', 0, 'R', 0, 'P', 0, 0, 0, 0, 0};
+
+    @Test
+    public void testPasswordHashes() throws Exception {
+        final PublicNTLMEngineImpl.CredentialHashes credentials =
+                new PublicNTLMEngineImpl.CredentialHashes("CORP", "User", "Password");
+        assertEquals("a4f49c406510bdcab6824ee7c30fd852", hex(credentials.getNTLMHash()));
+        assertEquals("e52cac67419a9a224a3b108f3fa6cb6d", hex(credentials.getLMHash()));
+    }
+
+    @Test
+    public void testCipherGenUnderContention() throws Exception {
+        final byte[][] expected = responses(new PublicNTLMEngineImpl.CredentialHashes("CORP", "User", "Password"));
+        // a fresh instance so the lazily computed hashes are raced for as well
+        final PublicNTLMEngineImpl.CredentialHashes credentials =
+                new PublicNTLMEngineImpl.CredentialHashes("CORP", "User", "Password");
+
+        runConcurrently(() -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                assertArrayEquals(expected, responses(credentials));
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void testType3MessagesUnderContention() throws Exception {
+        final PublicNTLMEngineImpl engine = new PublicNTLMEngineImpl();
+        final PublicNTLMEngineImpl.CredentialHashes credentials =
+                new PublicNTLMEngineImpl.CredentialHashes("CORP", "User", "Password");
+        final String ntlmv2Challenge = Type2Messages.create(true);
+        final String ntlm2SessionChallenge = Type2Messages.create(false);
+        final int ntlmv2Length = decode(engine.generateType3Msg(credentials, "workstation", ntlmv2Challenge)).length;
+        final int ntlm2SessionLength = decode(engine.generateType3Msg(credentials, "workstation", ntlm2SessionChallenge)).length;
+
+        runConcurrently(() -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                final byte[] ntlmv2 = decode(engine.generateType3Msg(credentials, "workstation", ntlmv2Challenge));
+                assertEquals(ntlmv2Length, ntlmv2.length);
+                assertEquals(3, ntlmv2[8]);
+                final byte[] ntlm2Session = decode(engine.generateType3Msg(credentials, "workstation", ntlm2SessionChallenge));
+                assertEquals(ntlm2SessionLength, ntlm2Session.length);
+                assertEquals(3, ntlm2Session[8]);
+            }
+            return null;
+        });
+    }
+
+    private static byte[][] responses(final PublicNTLMEngineImpl.CredentialHashes credentials) throws Exception {
+        final PublicNTLMEngineImpl.CipherGen gen = new PublicNTLMEngineImpl.CipherGen(credentials,
+                CHALLENGE, "CORP", TARGET_INFO, CLIENT_CHALLENGE, CLIENT_CHALLENGE_2, SECONDARY_KEY, TIMESTAMP);
+        return new byte[][]{
+                gen.getNTLMv2Response(),
+                gen.getLMv2Response(),
+                gen.getNTLMv2UserSessionKey(),
+                gen.getNTLM2SessionResponse(),
+                gen.getNTLM2SessionResponseUserSessionKey(),
+                gen.getLanManagerSessionKey(),
+                PublicNTLMEngineImpl.RC4(SECONDARY_KEY, gen.getNTLMv2UserSessionKey())
+        };
+    }
+
+    private static void runConcurrently(final Callable<Void> task) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (final Future<Void> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] decode(final String message) {
+        return Base64.getDecoder().decode(message.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder();
+        for (final byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
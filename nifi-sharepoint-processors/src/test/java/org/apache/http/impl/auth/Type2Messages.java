@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.http.impl.auth;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Builds the Type 2 (challenge) messages a server would send, as input for Type 3 generation.
+ */
+final class Type2Messages {
+
+    static final byte[] SERVER_CHALLENGE = {0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef};
+
+    private Type2Messages() {
+    }
+
+    /**
+     * @param ntlmv2 whether the challenge carries target information, which makes the client answer with NTLMv2
+     * @return the base64 encoded Type 2 message
+     */
+    static String create(final boolean ntlmv2) {
+        final byte[] target = "CORP".getBytes(StandardCharsets.UTF_16LE);
+        // MsvAvNbDomainName followed by MsvAvEOL
+        final ByteBuffer targetInfo = ByteBuffer.allocate(4 + target.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        targetInfo.putShort((short) 2).putShort((short) target.length).put(target);
+        targetInfo.putShort((short) 0).putShort((short) 0);
+
+        int flags = PublicNTLMEngineImpl.FLAG_REQUEST_UNICODE_ENCODING
+                | PublicNTLMEngineImpl.FLAG_REQUEST_TARGET
+                | PublicNTLMEngineImpl.FLAG_REQUEST_NTLMv1
+                | PublicNTLMEngineImpl.FLAG_REQUEST_NTLM2_SESSION
+                | PublicNTLMEngineImpl.FLAG_REQUEST_VERSION
+                | PublicNTLMEngineImpl.FLAG_REQUEST_128BIT_KEY_EXCH
+                | PublicNTLMEngineImpl.FLAG_REQUEST_56BIT_ENCRYPTION;
+        if (ntlmv2) {
+            flags |= PublicNTLMEngineImpl.FLAG_TARGETINFO_PRESENT;
+        }
+
+        final int payloadOffset = 56;
+        final ByteBuffer message = ByteBuffer.allocate(payloadOffset + target.length + targetInfo.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        message.put("NTLMSSP\0".getBytes(StandardCharsets.US_ASCII));
+        message.putInt(2);
+        // target name security buffer
+        message.putShort((short) target.length).putShort((short) target.length).putInt(payloadOffset);
+        message.putInt(flags);
+        message.put(SERVER_CHALLENGE);
+        // reserved
+        message.putLong(0L);
+        // target information security buffer
+        message.putShort((short) targetInfo.capacity()).putShort((short) targetInfo.capacity()).putInt(payloadOffset + target.length);
+        // version 6.1, build 7601, NTLM revision 15
+        message.put(new byte[]{0x06, 0x01, (byte) 0xb1, 0x1d, 0x00, 0x00, 0x00, 0x0f});
+        message.put(target);
+        message.put(targetInfo.array());
+        return Base64.getEncoder().encodeToString(message.array());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class AttributeDecoderTest {
+
+    // two byte characters in UTF-8
+    private static final String TEXT = "Отчёт по заявке";
+
+    @Test
+    public void testDecodesLikeNewString() {
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() < 3 * AttributeDecoder.MAX_RETAINED_CHARS) {
+            builder.append(TEXT).append(" €😀 ");
+        }
+        for (String text : new String[]{"", "plain ascii", TEXT, builder.toString()}) {
+            for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.ISO_8859_1}) {
+                final byte[] bytes = text.getBytes(charset);
+                assertEquals(new String(bytes, charset), AttributeDecoder.decode(bytes, bytes.length, charset, false));
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatedBodyEndsOnCharacterBoundary() throws Exception {
+        final byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        final SoftLimitBoundedByteArrayOutputStream out = new SoftLimitBoundedByteArrayOutputStream(5);
+        out.fillFrom(new ByteArrayInputStream(bytes));
+
+        // the fifth byte starts the third character, which is dropped rather than replaced
+        assertEquals("От", AttributeDecoder.decode(out, StandardCharsets.UTF_8));
+        assertEquals("От�", new String(out.getBuffer(), 0, out.size(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testMalformedEndOfCompleteBodyIsReplaced() {
+        final byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        assertEquals("От�", AttributeDecoder.decode(bytes, 5, StandardCharsets.UTF_8, false));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private static final String HOST = "sharepoint.example.com";
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long SLOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final MockComponentLog logger = new MockComponentLog("breaker", this);
+    private final CircuitBreaker breaker = new CircuitBreaker(logger, 4, 4, 50, 100, SLOW_NANOS, OPEN_NANOS, 2);
+
+    @Test
+    public void testOpensAtFailureRateAndClosesAfterTrials() throws Exception {
+        long now = 0;
+        send(now, false);
+        send(now, true);
+        send(now, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+        send(now, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+        assertEquals(1, breaker.getOpenings());
+        assertRejected(now, CircuitBreaker.State.OPEN);
+
+        now += OPEN_NANOS;
+        final long first = breaker.acquire(HOST, now);
+        final long second = breaker.acquire(HOST, now);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(HOST));
+        assertRejected(now, CircuitBreaker.State.HALF_OPEN);
+
+        breaker.record(HOST, first, false, now, now);
+        breaker.record(HOST, second, false, now, now);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+        assertEquals(2, breaker.getRejectedCount());
+        assertEquals(0, breaker.getOpenCount());
+    }
+
+    @Test
+    public void testFailedTrialOpensAgain() throws Exception {
+        long now = 0;
+        final long late = breaker.acquire(HOST, now);
+        for (int i = 0; i < 4; i++) {
+            send(now, true);
+        }
+        now += OPEN_NANOS;
+        final long trial = breaker.acquire(HOST, now);
+        // a request let through while the circuit was closed does not count as a trial
+        breaker.record(HOST, late, false, 0, now);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(HOST));
+        breaker.record(HOST, trial, true, now, now);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+        assertEquals(2, breaker.getOpenings());
+        assertRejected(now + OPEN_NANOS - 1, CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void testSlowRequestsOpen() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            final long permit = breaker.acquire(HOST, 0);
+            breaker.record(HOST, permit, false, 0, SLOW_NANOS + 1);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    private void send(final long now, final boolean failed) throws CircuitBreaker.OpenException {
+        final long permit = breaker.acquire(HOST, now);
+        breaker.record(HOST, permit, failed, now, now);
+    }
+
+    private void assertRejected(final long now, final CircuitBreaker.State state) {
+        try {
+            breaker.acquire(HOST, now);
+            fail("The request should not be let through");
+        } catch (final CircuitBreaker.OpenException e) {
+            assertEquals(state, e.getState());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoalescingInterceptorTest {
+
+    private static final int FOLLOWERS = 8;
+    private static final String BODY = "{\"Title\":\"Documents\"}";
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CountDownLatch arrived = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void stop() {
+        release.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        calls.incrementAndGet();
+        arrived.countDown();
+        try {
+            release.await(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneCall() throws Exception {
+        final CoalescingInterceptor interceptor = new CoalescingInterceptor(TimeUnit.MINUTES.toNanos(1), 1024);
+        final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+
+        final List<Future<String>> responses = new ArrayList<>();
+        responses.add(executor.submit(() -> get(client, "/list")));
+        assertTrue(arrived.await(1, TimeUnit.MINUTES));
+        for (int i = 0; i < FOLLOWERS; i++) {
+            responses.add(executor.submit(() -> get(client, "/list")));
+        }
+        // give the followers time to join the call in flight before the server answers it
+        Thread.sleep(500);
+        release.countDown();
+
+        for (Future<String> response : responses) {
+            assertEquals(BODY, response.get(1, TimeUnit.MINUTES));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(FOLLOWERS, interceptor.getCoalescedCount());
+    }
+
+    @Test
+    public void testDifferentRequestsAreNotCoalesced() throws Exception {
+        release.countDown();
+        final CoalescingInterceptor interceptor = new CoalescingInterceptor(TimeUnit.MINUTES.toNanos(1), 1024);
+        final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+
+        assertEquals(BODY, get(client, "/list"));
+        assertEquals(BODY, get(client, "/other"));
+        assertEquals(2, calls.get());
+        assertEquals(0, interceptor.getCoalescedCount());
+    }
+
+    @Test
+    public void testResponseIsReturnedWhenItsBodyCannotBeShared() throws Exception {
+        try (ServerSocket truncating = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            executor.submit(() -> {
+                try (Socket socket = truncating.accept()) {
+                    final BufferedReader request = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    while (!request.readLine().isEmpty()) {
+                        // skip the request headers
+                    }
+                    // the connection ends before the declared length
+                    socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\npartial".getBytes(StandardCharsets.US_ASCII));
+                }
+                return null;
+            });
+            final CoalescingInterceptor interceptor = new CoalescingInterceptor(TimeUnit.MINUTES.toNanos(1), 1024);
+            final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+
+            final String url = "http://" + truncating.getInetAddress().getHostAddress() + ":" + truncating.getLocalPort() + "/list";
+            try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                assertEquals(200, response.code());
+                try {
+                    response.body().string();
+                    fail("The body was cut short");
+                } catch (IOException expected) {
+                    // the failure to read the body shows where the body is read
+                }
+            }
+            assertEquals(0, interceptor.getCoalescedCount());
+        }
+    }
+
+    private String get(OkHttpClient client, String path) throws IOException {
+        final String url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path;
+        try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+            assertEquals(200, response.code());
+            return response.body().string();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.apache.http.impl.auth.NTLMStandInServer;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Load test of the processor against a local NTLM stand-in server, reporting throughput, latency percentiles and
+ * handshake counts so that performance changes can be compared offline. It is skipped unless enabled:
+ * <pre>
+ * mvn test -Dtest=CustomInvokeHTTPLoadTest -Dinvokehttp.loadtest=true -Dinvokehttp.loadtest.threads=16 -Dinvokehttp.loadtest.requests=50000
+ * </pre>
+ * Latency is measured per onTrigger, which sends exactly one request while the batch size is 1.
+ */
+public class CustomInvokeHTTPLoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(CustomInvokeHTTPLoadTest.class);
+
+    private int threads;
+    private int requests;
+
+    @Before
+    public void init() {
+        Assume.assumeTrue("Load test is disabled, set -Dinvokehttp.loadtest=true to run it", Boolean.getBoolean("invokehttp.loadtest"));
+        threads = Integer.getInteger("invokehttp.loadtest.threads", 8);
+        requests = Integer.getInteger("invokehttp.loadtest.requests", 10000);
+    }
+
+    @Test
+    public void testNtlmLoad() throws Exception {
+        final TimedInvokeHTTP processor = new TimedInvokeHTTP(requests);
+        final TestRunner runner = TestRunners.newTestRunner(processor);
+
+        try (NTLMStandInServer server = new NTLMStandInServer("User", "Password", threads)) {
+            runner.setProperty(CustomInvokeHTTP.PROP_URL, server.url());
+            runner.setProperty(CustomInvokeHTTP.PROP_BASIC_AUTH_USERNAME, "User");
+            runner.setProperty(CustomInvokeHTTP.PROP_BASIC_AUTH_PASSWORD, "Password");
+            runner.setProperty(CustomInvokeHTTP.PROP_NTLM_DOMAIN, "CORP");
+            runner.setProperty(CustomInvokeHTTP.PROP_NTLM_AUTH, "true");
+            runner.setProperty(CustomInvokeHTTP.PROP_MAX_IDLE_CONNECTIONS, String.valueOf(threads));
+            runner.setThreadCount(threads);
+            for (int i = 0; i < requests; i++) {
+                runner.enqueue(new byte[0]);
+            }
+
+            final long start = System.nanoTime();
+            runner.run(requests, true, true, TimeUnit.MINUTES.toMillis(30));
+            final long elapsed = System.nanoTime() - start;
+
+            runner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, requests);
+            assertEquals(requests, server.getAuthenticatedRequests());
+
+            final long[] latencies = processor.getLatencies();
+            Arrays.sort(latencies);
+            logger.info(String.format("%d requests on %d threads: %.0f req/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms; "
+                            + "%d connections, %d handshakes (%d rejected), %d bare challenges",
+                    requests, threads, requests / (elapsed / 1e9),
+                    millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)), millis(latencies[latencies.length - 1]),
+                    server.getConnections(), server.getType3Messages(), server.getRejectedType3Messages(), server.getChallenges()));
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.ceil(percentile * sorted.length) - 1];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Records how long each onTrigger takes.
+     */
+    private static class TimedInvokeHTTP extends CustomInvokeHTTP {
+        private final long[] latencies;
+        private final AtomicInteger triggers = new AtomicInteger();
+
+        TimedInvokeHTTP(int expectedTriggers) {
+            latencies = new long[expectedTriggers];
+        }
+
+        @Override
+        public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
+            final long start = System.nanoTime();
+            try {
+                super.onTrigger(context, session);
+            } finally {
+                final int trigger = triggers.getAndIncrement();
+                if (trigger < latencies.length) {
+                    latencies[trigger] = System.nanoTime() - start;
+                }
+            }
+        }
+
+        long[] getLatencies() {
+            return Arrays.copyOf(latencies, Math.min(triggers.get(), latencies.length));
+        }
+    }
+}
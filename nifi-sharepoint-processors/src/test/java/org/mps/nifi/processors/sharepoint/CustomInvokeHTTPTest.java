@@ -16,11 +16,40 @@
  */
 package org.mps.nifi.processors.sharepoint;
 
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.Credentials;
+import org.apache.http.impl.auth.NTLMStandInServer;
+import org.apache.nifi.provenance.ProvenanceEventRecord;
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class CustomInvokeHTTPTest {
 
@@ -36,4 +65,488 @@ public class CustomInvokeHTTPTest {
 
     }
 
+    @Test
+    public void testNtlmAuthentication() throws Exception {
+        try (NTLMStandInServer server = new NTLMStandInServer("User", "Password", 4)) {
+            setNtlmProperties(server, "Password");
+            testRunner.enqueue(new byte[0]);
+            testRunner.enqueue(new byte[0]);
+            testRunner.run(2);
+
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 2);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, 2);
+            final MockFlowFile response = testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_RESPONSE).get(0);
+            response.assertAttributeEquals(CustomInvokeHTTP.STATUS_CODE, "200");
+            // HTTP/2 is only negotiated over TLS, so a plain http URL stays on HTTP/1.1
+            response.assertAttributeEquals(CustomInvokeHTTP.PROTOCOL, "http/1.1");
+            response.assertContentEquals(NTLMStandInServer.BODY);
+            // the second request reuses the connection the first one authenticated
+            assertEquals(1, server.getType3Messages());
+        }
+    }
+
+    @Test
+    public void testNtlmAuthenticationRejected() throws Exception {
+        try (NTLMStandInServer server = new NTLMStandInServer("User", "Password", 4)) {
+            setNtlmProperties(server, "Wrong");
+            testRunner.enqueue(new byte[0]);
+            testRunner.run();
+
+            testRunner.assertAllFlowFilesTransferred(CustomInvokeHTTP.REL_NO_RETRY, 1);
+            testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_NO_RETRY).get(0)
+                    .assertAttributeEquals(CustomInvokeHTTP.STATUS_CODE, "401");
+            assertEquals(1, server.getRejectedType3Messages());
+        }
+    }
+
+    @Test
+    public void testAsynchronousResponses() throws Exception {
+        try (NTLMStandInServer server = new NTLMStandInServer("User", "Password", 4)) {
+            setNtlmProperties(server, "Password");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_ASYNCHRONOUS, "true");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_BATCH_SIZE, "10");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_MAX_OUTSTANDING_REQUESTS, "8");
+            for (int i = 0; i < 10; i++) {
+                testRunner.enqueue(new byte[0]);
+            }
+
+            // the first invocation dispatches as many requests as there are permits, stopping waits for their responses
+            testRunner.run(1);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 8);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, 8);
+            testRunner.assertQueueNotEmpty();
+
+            testRunner.run(1);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 10);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, 10);
+            testRunner.assertQueueEmpty();
+            for (MockFlowFile response : testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_RESPONSE)) {
+                response.assertAttributeEquals(CustomInvokeHTTP.STATUS_CODE, "200");
+                response.assertContentEquals(NTLMStandInServer.BODY);
+            }
+        }
+    }
+
+    @Test
+    public void testHttpProtocolPreferenceValidation() throws Exception {
+        testRunner.setProperty(CustomInvokeHTTP.PROP_URL, "http://localhost/");
+        testRunner.setProperty(CustomInvokeHTTP.PROP_HTTP_PROTOCOL, CustomInvokeHTTP.HTTP_2_PRIOR_KNOWLEDGE.getValue());
+        testRunner.assertValid();
+        testRunner.setProperty(CustomInvokeHTTP.PROP_HTTP_PROTOCOL, "h3");
+        testRunner.assertNotValid();
+    }
+
+    @Test
+    public void testNtlmDoesNotSendBasicCredentials() throws Exception {
+        final Queue<String> authorizations = new ConcurrentLinkedQueue<>();
+        final HttpServer server = authorizationRecordingServer(authorizations);
+        try {
+            setAuthenticationProperties(server, "User", "Password");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_NTLM_DOMAIN, "CORP");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_NTLM_AUTH, "true");
+            testRunner.enqueue(new byte[0]);
+            testRunner.run();
+
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 1);
+            assertEquals(1, authorizations.size());
+            for (String authorization : authorizations) {
+                // the NTLM negotiation starts instead, the password never leaving in the clear
+                assertTrue(authorization, authorization.startsWith("NTLM "));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBasicCredentialsAreSentWithoutNtlm() throws Exception {
+        final Queue<String> authorizations = new ConcurrentLinkedQueue<>();
+        final HttpServer server = authorizationRecordingServer(authorizations);
+        try {
+            setAuthenticationProperties(server, "User", "Password");
+            testRunner.enqueue(new byte[0]);
+            testRunner.enqueue(new byte[0]);
+            testRunner.run(2);
+
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 2);
+            assertEquals(Arrays.asList(Credentials.basic("User", "Password"), Credentials.basic("User", "Password")),
+                    new ArrayList<>(authorizations));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRetriesUntilSuccess() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = unavailableServer(requests, 2);
+        try {
+            setRetryProperties(server, "3");
+            testRunner.enqueue(new byte[0]);
+            testRunner.run();
+
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 1);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RETRY, 0);
+            assertEquals(3, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testExhaustedRetriesAreRouted() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = unavailableServer(requests, Integer.MAX_VALUE);
+        try {
+            setRetryProperties(server, "2");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_ASYNCHRONOUS, "true");
+            testRunner.enqueue(new byte[0]);
+
+            // stopping would roll back a request waiting to be retried, so the processor is left running until it is routed
+            testRunner.run(1, false);
+            final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_RETRY).isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            testRunner.run(1, true, false);
+
+            testRunner.assertAllFlowFilesTransferred(CustomInvokeHTTP.REL_RETRY, 1);
+            testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_RETRY).get(0)
+                    .assertAttributeEquals(CustomInvokeHTTP.STATUS_CODE, "503");
+            assertEquals(2, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStoppingCancelsPendingRetries() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = unavailableServer(requests, Integer.MAX_VALUE);
+        try {
+            setRetryProperties(server, "3");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_RETRY_INITIAL_BACKOFF, "1 min");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_RETRY_MAX_BACKOFF, "1 min");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_ASYNCHRONOUS, "true");
+            testRunner.enqueue(new byte[0]);
+
+            testRunner.run(1, false);
+            final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (requests.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // leave the callback the time to schedule the retry
+            Thread.sleep(200);
+
+            final long stopStart = System.nanoTime();
+            testRunner.run(1, true, false);
+            assertTrue(System.nanoTime() - stopStart < TimeUnit.SECONDS.toNanos(10));
+
+            // the request waiting for its backoff was not sent again, and its FlowFile went back to the queue
+            assertEquals(1, requests.get());
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RETRY, 0);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_FAILURE, 0);
+            testRunner.assertQueueNotEmpty();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testOpenCircuitFailsFast() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = unavailableServer(requests, Integer.MAX_VALUE);
+        try {
+            setRetryProperties(server, "1");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_CIRCUIT_BREAKER, "true");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_CIRCUIT_WINDOW_SIZE, "2");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_CIRCUIT_MINIMUM_REQUESTS, "2");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_CIRCUIT_OPEN_DURATION, "1 min");
+            testRunner.enqueue(new byte[0]);
+            testRunner.enqueue(new byte[0]);
+            testRunner.enqueue(new byte[0]);
+            testRunner.run(3);
+
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RETRY, 2);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_FAILURE, 1);
+            final MockFlowFile failed = testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_FAILURE).get(0);
+            failed.assertAttributeEquals(CustomInvokeHTTP.CIRCUIT_STATE, "open");
+            failed.assertAttributeNotExists(CustomInvokeHTTP.STATUS_CODE);
+            assertTrue(failed.isPenalized());
+            assertEquals(2, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testConstantUrl() throws Exception {
+        final HttpServer server = echoServer(new ConcurrentLinkedQueue<>(), new AtomicInteger());
+        try {
+            final String url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/echo";
+            // surrounding whitespace is trimmed from the configured URL
+            testRunner.setProperty(CustomInvokeHTTP.PROP_URL, "  " + url + " ");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_METHOD, "POST");
+            testRunner.enqueue("first");
+            testRunner.enqueue("second");
+            testRunner.run(2);
+
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 2);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, 2);
+            for (MockFlowFile request : testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_SUCCESS_REQ)) {
+                request.assertAttributeEquals(CustomInvokeHTTP.REQUEST_URL, url);
+            }
+            final Set<ProvenanceEventType> eventTypes = new HashSet<>();
+            for (ProvenanceEventRecord event : testRunner.getProvenanceEvents()) {
+                if (event.getTransitUri() != null) {
+                    assertEquals(url, event.getTransitUri());
+                    eventTypes.add(event.getEventType());
+                }
+            }
+            assertEquals(new HashSet<>(Arrays.asList(ProvenanceEventType.SEND, ProvenanceEventType.FETCH)), eventTypes);
+            // the URL was parsed when the processor was scheduled, so the cache of parsed URLs was never asked
+            assertNull(testRunner.getCounterValue("Parsed URL Cache Hit Ratio %"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testInvalidConstantUrlFailsEachFlowFile() {
+        // a valid URL to the validator, but not one for HTTP
+        testRunner.setProperty(CustomInvokeHTTP.PROP_URL, "ftp://localhost/");
+        testRunner.enqueue("first");
+        testRunner.enqueue("second");
+        testRunner.run(2);
+
+        testRunner.assertAllFlowFilesTransferred(CustomInvokeHTTP.REL_FAILURE, 2);
+        for (MockFlowFile failed : testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_FAILURE)) {
+            failed.assertAttributeEquals(CustomInvokeHTTP.EXCEPTION_CLASS, MalformedURLException.class.getName());
+        }
+    }
+
+    @Test
+    public void testExpressionUrlsAreParsedOncePerValue() throws Exception {
+        final HttpServer server = echoServer(new ConcurrentLinkedQueue<>(), new AtomicInteger());
+        try {
+            final String url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/echo";
+            testRunner.setProperty(CustomInvokeHTTP.PROP_URL, "${target}");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_METHOD, "POST");
+            for (int i = 0; i < 4; i++) {
+                testRunner.enqueue("body", Collections.singletonMap("target", " " + url + " "));
+            }
+            testRunner.run(4);
+
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 4);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, 4);
+            for (MockFlowFile request : testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_SUCCESS_REQ)) {
+                request.assertAttributeEquals(CustomInvokeHTTP.REQUEST_URL, url);
+            }
+            for (ProvenanceEventRecord event : testRunner.getProvenanceEvents()) {
+                if (event.getTransitUri() != null) {
+                    assertEquals(url, event.getTransitUri());
+                }
+            }
+            // parsed for the first FlowFile, and found in the cache for the three others
+            assertEquals(Long.valueOf(75), testRunner.getCounterValue("Parsed URL Cache Hit Ratio %"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBatchRoutesEachExchange() throws Exception {
+        final Queue<String> bodies = new ConcurrentLinkedQueue<>();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final HttpServer server = echoServer(bodies, maxInFlight);
+        try {
+            final String url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+            testRunner.setProperty(CustomInvokeHTTP.PROP_URL, "${target}");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_METHOD, "POST");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_BATCH_SIZE, "10");
+            testRunner.enqueue("first", Collections.singletonMap("target", url + "/echo"));
+            testRunner.enqueue("missing", Collections.singletonMap("target", url + "/missing"));
+            testRunner.enqueue("malformed", Collections.singletonMap("target", "not a url"));
+            testRunner.enqueue("second", Collections.singletonMap("target", url + "/echo"));
+            testRunner.run();
+
+            testRunner.assertQueueEmpty();
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 2);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, 2);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_NO_RETRY, 1);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_FAILURE, 1);
+            final Set<String> responses = new HashSet<>();
+            for (MockFlowFile response : testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_RESPONSE)) {
+                response.assertAttributeEquals(CustomInvokeHTTP.STATUS_CODE, "200");
+                responses.add(new String(response.toByteArray(), StandardCharsets.UTF_8));
+            }
+            assertEquals(new HashSet<>(Arrays.asList("first", "second")), responses);
+            final MockFlowFile missing = testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_NO_RETRY).get(0);
+            missing.assertAttributeEquals(CustomInvokeHTTP.STATUS_CODE, "404");
+            missing.assertContentEquals("missing");
+            // the malformed URL fails its own exchange only, before anything is sent
+            final MockFlowFile malformed = testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_FAILURE).get(0);
+            malformed.assertAttributeEquals(CustomInvokeHTTP.EXCEPTION_CLASS, MalformedURLException.class.getName());
+            malformed.assertContentEquals("malformed");
+
+            // the buffered bodies were sent as they were, and the requests were in flight together
+            assertEquals(new HashSet<>(Arrays.asList("first", "missing", "second")), new HashSet<>(bodies));
+            assertTrue(maxInFlight.get() > 1);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBatchKeepsToTheConnectionsOfOneHost() throws Exception {
+        final Queue<String> bodies = new ConcurrentLinkedQueue<>();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+        final HttpServer server = echoServer(bodies, maxInFlight, clientPorts);
+        try {
+            testRunner.setProperty(CustomInvokeHTTP.PROP_URL, "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/echo");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_METHOD, "POST");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_BATCH_SIZE, "10");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_MAX_REQUESTS_PER_HOST, "2");
+            for (int i = 0; i < 10; i++) {
+                testRunner.enqueue("body " + i);
+            }
+            testRunner.run();
+
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 10);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, 10);
+            assertEquals(10, bodies.size());
+            // responses are routed as they arrive, so the connections they held are reused instead of opening one per request
+            assertTrue(maxInFlight.get() > 1);
+            assertTrue(clientPorts.toString(), clientPorts.size() <= 2);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBatchStreamsContentBeyondBufferSize() throws Exception {
+        final Queue<String> bodies = new ConcurrentLinkedQueue<>();
+        final HttpServer server = echoServer(bodies, new AtomicInteger());
+        try {
+            testRunner.setProperty(CustomInvokeHTTP.PROP_URL, "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/echo");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_METHOD, "PUT");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_BATCH_SIZE, "10");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_BATCH_MAX_BUFFER_SIZE, "4 B");
+            testRunner.enqueue("aaa");
+            testRunner.enqueue("bbbbbb");
+            testRunner.enqueue("c");
+            testRunner.run();
+
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_SUCCESS_REQ, 3);
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, 3);
+            final Set<String> responses = new HashSet<>();
+            for (MockFlowFile response : testRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_RESPONSE)) {
+                responses.add(new String(response.toByteArray(), StandardCharsets.UTF_8));
+            }
+            assertEquals(new HashSet<>(Arrays.asList("aaa", "bbbbbb", "c")), responses);
+            // the content that did not fit in the buffer was streamed once the rest of the batch was routed
+            assertEquals(3, bodies.size());
+            assertEquals("bbbbbb", new ArrayList<>(bodies).get(2));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static HttpServer echoServer(Queue<String> bodies, AtomicInteger maxInFlight) throws IOException {
+        return echoServer(bodies, maxInFlight, ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * @return a server echoing request bodies except on /missing, which it answers with 404, keeping each body it receives,
+     * the most requests it served at once and the ports of the connections they came on
+     */
+    private static HttpServer echoServer(Queue<String> bodies, AtomicInteger maxInFlight, Set<Integer> clientPorts) throws IOException {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            try {
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try (InputStream in = exchange.getRequestBody()) {
+                    final byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        body.write(buffer, 0, read);
+                    }
+                }
+                bodies.add(new String(body.toByteArray(), StandardCharsets.UTF_8));
+                // hold the request a little so that requests sent together are seen together
+                Thread.sleep(100);
+                if ("/missing".equals(exchange.getRequestURI().getPath())) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, body.size());
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        body.writeTo(out);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * @return a server answering the given number of requests with 503 before it answers with 200
+     */
+    private static HttpServer unavailableServer(AtomicInteger requests, int unavailable) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(requests.incrementAndGet() <= unavailable ? 503 : 200, -1);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * @return a server answering every request with 200, keeping the Authorization header of each, or an empty string
+     * when it had none
+     */
+    private static HttpServer authorizationRecordingServer(Queue<String> authorizations) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            authorizations.add(authorization == null ? "" : authorization);
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
+    private void setRetryProperties(HttpServer server, String maxAttempts) {
+        testRunner.setProperty(CustomInvokeHTTP.PROP_URL, "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+        testRunner.setProperty(CustomInvokeHTTP.PROP_RETRY_MAX_ATTEMPTS, maxAttempts);
+        testRunner.setProperty(CustomInvokeHTTP.PROP_RETRY_INITIAL_BACKOFF, "1 millis");
+        testRunner.setProperty(CustomInvokeHTTP.PROP_RETRY_MAX_BACKOFF, "10 millis");
+    }
+
+    private void setAuthenticationProperties(HttpServer server, String username, String password) {
+        testRunner.setProperty(CustomInvokeHTTP.PROP_URL, "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+        testRunner.setProperty(CustomInvokeHTTP.PROP_BASIC_AUTH_USERNAME, username);
+        testRunner.setProperty(CustomInvokeHTTP.PROP_BASIC_AUTH_PASSWORD, password);
+    }
+
+    private void setNtlmProperties(NTLMStandInServer server, String password) {
+        testRunner.setProperty(CustomInvokeHTTP.PROP_URL, server.url());
+        testRunner.setProperty(CustomInvokeHTTP.PROP_BASIC_AUTH_USERNAME, "User");
+        testRunner.setProperty(CustomInvokeHTTP.PROP_BASIC_AUTH_PASSWORD, password);
+        testRunner.setProperty(CustomInvokeHTTP.PROP_NTLM_DOMAIN, "CORP");
+        testRunner.setProperty(CustomInvokeHTTP.PROP_NTLM_AUTH, "true");
+    }
+
 }
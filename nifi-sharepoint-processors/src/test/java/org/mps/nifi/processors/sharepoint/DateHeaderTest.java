@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class DateHeaderTest {
+
+    // the example of RFC 7231 section 7.1.1.1
+    private static final long EXAMPLE_MILLIS = 784111777000L;
+
+    @Test
+    public void testFormatsRfc1123() {
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", DateHeader.format(EXAMPLE_MILLIS));
+        assertEquals("Sun, 06 Nov 1994 08:49:38 GMT", DateHeader.format(EXAMPLE_MILLIS + 1000));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", DateHeader.format(0));
+    }
+
+    @Test
+    public void testValueIsReusedWithinTheSecond() {
+        final String first = DateHeader.format(EXAMPLE_MILLIS + 10);
+        assertSame(first, DateHeader.format(EXAMPLE_MILLIS + 999));
+        assertNotSame(first, DateHeader.format(EXAMPLE_MILLIS + 1000));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.Cache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ETagCacheRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCacheIsSharedUntilLastRelease() throws Exception {
+        final File directory = new File(folder.getRoot(), "shared");
+        final Cache first = ETagCacheRegistry.acquire(directory, 1024 * 1024);
+        final Cache second = ETagCacheRegistry.acquire(new File(folder.getRoot(), "./shared"), 2 * 1024 * 1024);
+        assertSame(first, second);
+        assertEquals(1024 * 1024, second.maxSize());
+
+        ETagCacheRegistry.release(first);
+        assertFalse(first.isClosed());
+        ETagCacheRegistry.release(second);
+        assertTrue(first.isClosed());
+
+        final Cache reopened = ETagCacheRegistry.acquire(directory, 1024 * 1024);
+        assertNotSame(first, reopened);
+        ETagCacheRegistry.release(reopened);
+    }
+
+    @Test
+    public void testDeletesOnlyUnusedCaches() throws Exception {
+        final Cache open = ETagCacheRegistry.acquire(new File(folder.getRoot(), "open"), 1024);
+        ETagCacheRegistry.release(ETagCacheRegistry.acquire(new File(folder.getRoot(), "stale"), 1024));
+        ETagCacheRegistry.release(ETagCacheRegistry.acquire(new File(folder.getRoot(), "recent"), 1024));
+        final File unrelated = folder.newFolder("unrelated");
+
+        final long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30);
+        assertTrue(new File(folder.getRoot(), "open/" + ETagCacheRegistry.JOURNAL).setLastModified(old));
+        assertTrue(new File(folder.getRoot(), "stale/" + ETagCacheRegistry.JOURNAL).setLastModified(old));
+        assertTrue(unrelated.setLastModified(old));
+
+        try {
+            assertEquals(1, ETagCacheRegistry.deleteOrphans(folder.getRoot(), TimeUnit.DAYS.toMillis(7)));
+            assertFalse(new File(folder.getRoot(), "stale").exists());
+            assertTrue(new File(folder.getRoot(), "open").exists());
+            assertTrue(new File(folder.getRoot(), "recent").exists());
+            assertTrue(unrelated.exists());
+        } finally {
+            ETagCacheRegistry.release(open);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.Request;
+import org.apache.nifi.util.MockComponentLog;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockProcessContext;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HeaderPlanTest {
+
+    private static final Map<String, String> EXCLUDED = Collections.singletonMap("Trusted Hostname", "HTTP request header '{}' excluded.");
+
+    private final MockComponentLog logger = new MockComponentLog("plan", this);
+    private TestRunner testRunner;
+    private long nextId;
+
+    @Before
+    public void init() {
+        testRunner = TestRunners.newTestRunner(CustomInvokeHTTP.class);
+        // as when the processor is scheduled, so that Expression Language is told apart from constants
+        ((MockProcessContext) testRunner.getProcessContext()).enableExpressionValidation();
+    }
+
+    @Test
+    public void testConstantAndExpressionHeaders() {
+        testRunner.setProperty("X-Constant", "fixed");
+        testRunner.setProperty("X-Expression", "list-${list}");
+        final HeaderPlan plan = create(Arrays.asList("X-Constant", "X-Expression"), null);
+        // the constant was evaluated when the plan was made
+        testRunner.setProperty("X-Constant", "changed");
+
+        final Request first = build(plan, flowFile(Collections.singletonMap("list", "Documents")));
+        final Request second = build(plan, flowFile(Collections.singletonMap("list", "Pages")));
+        assertEquals("fixed", first.header("X-Constant"));
+        assertEquals("list-Documents", first.header("X-Expression"));
+        assertEquals("fixed", second.header("X-Constant"));
+        assertEquals("list-Pages", second.header("X-Expression"));
+    }
+
+    @Test
+    public void testExcludedHeadersAreDroppedAndWarnedAboutOnce() {
+        testRunner.setProperty("Trusted Hostname", "sharepoint.example.com");
+        testRunner.setProperty("X-Sent", "yes");
+        final HeaderPlan plan = create(Arrays.asList("Trusted Hostname", "X-Sent"), null);
+
+        for (int i = 0; i < 3; i++) {
+            final Request request = build(plan, flowFile(Collections.emptyMap()));
+            assertNull(request.header("Trusted Hostname"));
+            assertEquals("yes", request.header("X-Sent"));
+        }
+        assertEquals(1, logger.getWarnMessages().size());
+    }
+
+    @Test
+    public void testAttributesToSendLeaveOutIgnoredAttributes() {
+        final HeaderPlan plan = create(Collections.emptyList(), Pattern.compile(".*"));
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("X-List", "Documents");
+        attributes.put(CustomInvokeHTTP.STATUS_CODE, "200");
+        attributes.put(CustomInvokeHTTP.TRANSACTION_ID, "1");
+
+        final Request request = build(plan, flowFile(attributes));
+        assertEquals("Documents", request.header("X-List"));
+        assertNull(request.header(CustomInvokeHTTP.STATUS_CODE));
+        assertNull(request.header(CustomInvokeHTTP.TRANSACTION_ID));
+        assertNull(request.header("uuid"));
+        assertNull(request.header("filename"));
+        assertNull(request.header("path"));
+    }
+
+    @Test
+    public void testDecisionsAreRememberedPerAttributeName() {
+        final HeaderPlan plan = create(Collections.emptyList(), Pattern.compile("X-.*"));
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(" X-Padded ", " value ");
+        attributes.put("Other", "not sent");
+        // an ignored attribute with surrounding whitespace is still ignored
+        attributes.put(" " + CustomInvokeHTTP.STATUS_CODE + " ", "200");
+
+        for (int i = 0; i < 2; i++) {
+            final Request request = build(plan, flowFile(attributes));
+            assertEquals(Collections.singletonList("value"), request.headers("X-Padded"));
+            assertNull(request.header("Other"));
+            assertNull(request.header(CustomInvokeHTTP.STATUS_CODE));
+        }
+        // the decisions for the three attributes and uuid, filename and path, made once for both FlowFiles
+        assertEquals(6, plan.getAttributeDecisionCount());
+    }
+
+    private HeaderPlan create(final List<String> dynamicPropertyNames, final Pattern attributesToSend) {
+        return HeaderPlan.create(testRunner.getProcessContext(), dynamicPropertyNames, attributesToSend, EXCLUDED, logger);
+    }
+
+    private MockFlowFile flowFile(final Map<String, String> attributes) {
+        final MockFlowFile flowFile = new MockFlowFile(nextId++);
+        flowFile.putAttributes(attributes);
+        return flowFile;
+    }
+
+    private static Request build(final HeaderPlan plan, final MockFlowFile flowFile) {
+        return plan.addHeaders(new Request.Builder().url("http://localhost/"), flowFile).build();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsHoldTheirValues() {
+        for (long value = 0; value < 1_000_000; value += 7) {
+            final int index = LatencyHistogram.index(value);
+            assertTrue(value <= LatencyHistogram.highestValue(index));
+            assertTrue(index == 0 || value > LatencyHistogram.highestValue(index - 1));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentilesWithinBucketWidth() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.getCount());
+        assertWithin(5_000, snapshot.valueAt(0.5));
+        assertWithin(9_900, snapshot.valueAt(0.99));
+        assertWithin(10_000, snapshot.getMax());
+    }
+
+    @Test
+    public void testSnapshotDifference() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        final LatencyHistogram.Snapshot first = histogram.snapshot();
+        histogram.record(1_000);
+        histogram.record(1_000);
+
+        final LatencyHistogram.Snapshot since = histogram.snapshot().since(first);
+        assertEquals(2, since.getCount());
+        assertWithin(1_000, since.valueAt(0.5));
+        assertEquals(0, first.since(first).valueAt(0.5));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is not within 6.25% above " + expected, actual >= expected && actual <= expected * 1.0625);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class MemoryCacheInterceptorTest {
+
+    private static final String ETAG = "\"1\"";
+    private static final String BODY = "{\"value\":[]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private volatile String cacheControl;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        exchange.getResponseHeaders().add("Cache-Control", cacheControl);
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModifiedResponses.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        fullResponses.incrementAndGet();
+        final byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    public void testStaleEntryIsRevalidatedFromMemory() throws Exception {
+        cacheControl = "private, max-age=0";
+        final MemoryCacheInterceptor interceptor = new MemoryCacheInterceptor(1024 * 1024, 1024);
+        final OkHttpClient client = client(interceptor);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BODY, get(client));
+        }
+        assertEquals(1, fullResponses.get());
+        assertEquals(2, notModifiedResponses.get());
+        assertEquals(3, interceptor.getRequestCount());
+        assertEquals(2, interceptor.getHitCount());
+        // the revalidations were answered from memory, so the disk cache never served them
+        assertEquals(0, client.cache().hitCount());
+    }
+
+    @Test
+    public void testFreshEntryIsAnsweredWithoutTheServer() throws Exception {
+        cacheControl = "private, max-age=60";
+        final MemoryCacheInterceptor interceptor = new MemoryCacheInterceptor(1024 * 1024, 1024);
+        final OkHttpClient client = client(interceptor);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BODY, get(client));
+        }
+        assertEquals(1, fullResponses.get());
+        assertEquals(0, notModifiedResponses.get());
+        assertEquals(2, interceptor.getHitCount());
+        assertEquals(1, client.cache().requestCount());
+    }
+
+    @Test
+    public void testLargeResponsesAreLeftToTheDiskCache() throws Exception {
+        cacheControl = "private, max-age=60";
+        final MemoryCacheInterceptor interceptor = new MemoryCacheInterceptor(1024 * 1024, BODY.length() - 1);
+        final OkHttpClient client = client(interceptor);
+
+        assertEquals(BODY, get(client));
+        assertEquals(BODY, get(client));
+        assertEquals(0, interceptor.getEntryCount());
+        assertEquals(0, interceptor.getHitCount());
+        assertEquals(1, client.cache().hitCount());
+    }
+
+    private OkHttpClient client(MemoryCacheInterceptor interceptor) throws IOException {
+        return new OkHttpClient.Builder()
+                .cache(new Cache(folder.newFolder(), 1024 * 1024))
+                .addInterceptor(interceptor)
+                .build();
+    }
+
+    private String get(OkHttpClient client) throws IOException {
+        final String url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/list";
+        try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+            assertEquals(200, response.code());
+            return response.body().string();
+        }
+    }
+}
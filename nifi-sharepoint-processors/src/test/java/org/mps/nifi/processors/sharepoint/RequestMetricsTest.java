@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestMetricsTest {
+
+    @Test
+    public void testSummaryCoversTheLastInterval() {
+        final RequestMetrics metrics = new RequestMetrics(TimeUnit.MINUTES.toNanos(5));
+        metrics.started(100);
+        metrics.started(0);
+        assertEquals(2, metrics.getInFlight());
+        metrics.completed("sharepoint.example.com", "GET", RequestMetrics.outcome(200), TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.completed("sharepoint.example.com", "POST", RequestMetrics.FAILED, TimeUnit.MILLISECONDS.toNanos(30));
+        metrics.received(512);
+
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(100, metrics.getBytesSent());
+        assertEquals(512, metrics.getBytesReceived());
+
+        final Map<String, LatencyHistogram.Snapshot> first = metrics.summarize();
+        assertEquals(2, first.size());
+        assertEquals(1, first.get("sharepoint.example.com GET 2xx").getCount());
+        assertEquals(1, first.get("sharepoint.example.com POST failed").getCount());
+
+        metrics.started(0);
+        metrics.completed("sharepoint.example.com", "GET", RequestMetrics.outcome(404), TimeUnit.MILLISECONDS.toNanos(5));
+        final Map<String, LatencyHistogram.Snapshot> second = metrics.summarize();
+        assertEquals(1, second.size());
+        assertEquals(1, second.get("sharepoint.example.com GET 4xx").getCount());
+    }
+
+    @Test
+    public void testRequestsNotSentAreLeftOut() {
+        final RequestMetrics metrics = new RequestMetrics(TimeUnit.MINUTES.toNanos(5));
+        metrics.started(100);
+        metrics.started(40);
+        metrics.notSent(40);
+        metrics.completed("sharepoint.example.com", "POST", RequestMetrics.FAILED, TimeUnit.MILLISECONDS.toNanos(30));
+
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(100, metrics.getBytesSent());
+        final Map<String, LatencyHistogram.Snapshot> summary = metrics.summarize();
+        assertEquals(1, summary.size());
+        assertEquals(1, summary.get("sharepoint.example.com POST failed").getCount());
+    }
+
+    @Test
+    public void testSummaryIsDueOncePerInterval() {
+        final RequestMetrics metrics = new RequestMetrics(TimeUnit.SECONDS.toNanos(10));
+        final long now = System.nanoTime();
+        assertFalse(metrics.isSummaryDue(now));
+        assertTrue(metrics.isSummaryDue(now + TimeUnit.SECONDS.toNanos(11)));
+        assertFalse(metrics.isSummaryDue(now + TimeUnit.SECONDS.toNanos(11)));
+    }
+
+    @Test
+    public void testHistogramsAreBounded() {
+        final RequestMetrics metrics = new RequestMetrics(TimeUnit.MINUTES.toNanos(5));
+        for (int i = 0; i < RequestMetrics.MAX_HISTOGRAMS + 10; i++) {
+            metrics.started(0);
+            metrics.completed("host" + i, "GET", "2xx", 1_000);
+        }
+        final Map<String, LatencyHistogram.Snapshot> summary = metrics.summarize();
+        assertEquals(RequestMetrics.MAX_HISTOGRAMS + 1, summary.size());
+        assertEquals(10, summary.get(RequestMetrics.OTHER).getCount());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.nifi.util.LogMessage;
+import org.apache.nifi.util.MockComponentLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestTracerTest {
+
+    private HttpServer server;
+    private final MockComponentLog logger = new MockComponentLog("tracer", this);
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Set-Cookie", "FedAuth=secret-cookie; path=/");
+        exchange.sendResponseHeaders(exchange.getRequestURI().getPath().startsWith("/missing") ? 404 : 200, -1);
+        exchange.close();
+    }
+
+    @Test
+    public void testSamplingRedactsCredentials() throws Exception {
+        final RequestTracer tracer = RequestTracer.sampling(logger, 10, 2, 0);
+        final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(tracer).build();
+        for (int i = 0; i < 4; i++) {
+            call(client, "/list/" + i);
+        }
+
+        final List<String> traces = tracer.getTraces();
+        assertEquals(2, traces.size());
+        assertTrue(traces.get(0).contains("/list/1"));
+        assertTrue(traces.get(1).contains("/list/3"));
+        assertTrue(traces.get(0).contains("Authorization: Bearer <redacted>"));
+        assertTrue(traces.get(0).contains("Set-Cookie: <redacted>"));
+        assertTrue(traces.get(0).contains("<-- 200"));
+        assertFalse(traces.get(0).contains("secret"));
+    }
+
+    @Test
+    public void testOnlyFailedRequestsAreTraced() throws Exception {
+        final RequestTracer tracer = RequestTracer.slowOrFailed(logger, 10, TimeUnit.MINUTES.toNanos(1), 0);
+        final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(tracer).build();
+        call(client, "/list");
+        call(client, "/missing");
+
+        final List<String> traces = tracer.getTraces();
+        assertEquals(1, traces.size());
+        assertTrue(traces.get(0).contains("/missing"));
+        assertTrue(traces.get(0).contains("<-- 404"));
+    }
+
+    @Test
+    public void testBufferKeepsTheMostRecentTraces() throws Exception {
+        final RequestTracer tracer = RequestTracer.sampling(logger, 2, 1, 0);
+        final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(tracer).build();
+        for (int i = 0; i < 3; i++) {
+            call(client, "/list/" + i);
+        }
+
+        final List<String> traces = tracer.getTraces();
+        assertEquals(2, traces.size());
+        assertTrue(traces.get(0).contains("/list/1"));
+        assertTrue(traces.get(1).contains("/list/2"));
+    }
+
+    @Test
+    public void testRecentTracesAreLoggedAtTheInterval() throws Exception {
+        final RequestTracer tracer = RequestTracer.sampling(logger, 10, 1, TimeUnit.SECONDS.toNanos(10));
+        final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(tracer).build();
+        final long now = System.nanoTime();
+        assertFalse(tracer.isLogDue(now));
+        call(client, "/list/0");
+        call(client, "/list/1");
+
+        assertTrue(tracer.isLogDue(now + TimeUnit.SECONDS.toNanos(11)));
+        tracer.logRecent();
+        call(client, "/list/2");
+        tracer.logRecent();
+        // nothing new to log
+        tracer.logRecent();
+
+        final List<LogMessage> messages = logger.getInfoMessages();
+        assertEquals(2, messages.size());
+        assertTrue(text(messages.get(0)).contains("/list/1"));
+        assertFalse(text(messages.get(1)).contains("/list/1"));
+        assertTrue(text(messages.get(1)).contains("/list/2"));
+        // the whole buffer is still there to be logged on stop
+        assertEquals(3, tracer.getTraces().size());
+    }
+
+    @Test
+    public void testNoIntervalLogsOnlyOnStop() {
+        final RequestTracer tracer = RequestTracer.slowOrFailed(logger, 10, TimeUnit.MINUTES.toNanos(1), 0);
+        assertFalse(tracer.isLogDue(System.nanoTime() + TimeUnit.DAYS.toNanos(1)));
+    }
+
+    private static String text(LogMessage message) {
+        return message.getMsg() + Arrays.toString(message.getArgs());
+    }
+
+    private void call(OkHttpClient client, String path) throws IOException {
+        final String url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path;
+        final Request request = new Request.Builder().url(url).header("Authorization", "Bearer secret-token").build();
+        try (Response response = client.newCall(request).execute()) {
+            response.body().string();
+        }
+    }
+}
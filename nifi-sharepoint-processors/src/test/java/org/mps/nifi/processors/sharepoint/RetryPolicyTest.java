@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.Test;
+
+import javax.net.ssl.SSLHandshakeException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private static final Request GET = new Request.Builder().url("http://sharepoint.example.com/_api/web").build();
+    private static final Request POST = new Request.Builder().url("http://sharepoint.example.com/_api/web")
+            .post(RequestBody.create(null, new byte[0])).build();
+
+    private final RetryPolicy policy = new RetryPolicy(3, 100, 1_000, RetryPolicy.parseStatusCodes("429, 503"), false);
+
+    @Test
+    public void testStatusCodes() {
+        assertTrue(policy.shouldRetry(1, GET, response(GET, 503, null)));
+        assertTrue(policy.shouldRetry(2, GET, response(GET, 429, null)));
+        assertFalse(policy.shouldRetry(3, GET, response(GET, 503, null)));
+        assertFalse(policy.shouldRetry(1, GET, response(GET, 500, null)));
+        assertFalse(policy.shouldRetry(1, POST, response(POST, 503, null)));
+    }
+
+    @Test
+    public void testFailures() {
+        assertTrue(policy.shouldRetry(1, GET, new SocketTimeoutException("timeout")));
+        assertFalse(policy.shouldRetry(1, GET, new SSLHandshakeException("untrusted")));
+        // a POST that timed out may have been carried out, one that could not connect was never sent
+        assertFalse(policy.shouldRetry(1, POST, new SocketTimeoutException("timeout")));
+        assertTrue(policy.shouldRetry(1, POST, new ConnectException("refused")));
+        assertTrue(new RetryPolicy(3, 100, 1_000, RetryPolicy.parseStatusCodes(""), true)
+                .shouldRetry(1, POST, new IOException("unexpected end of stream")));
+    }
+
+    @Test
+    public void testBackoff() {
+        for (int i = 0; i < 100; i++) {
+            assertBetween(50, 100, policy.backoffMillis(1, null));
+            assertBetween(100, 200, policy.backoffMillis(2, null));
+            assertBetween(500, 1_000, policy.backoffMillis(10, null));
+            assertBetween(500, 1_000, policy.backoffMillis(100, null));
+        }
+        assertEquals(1_000, policy.backoffMillis(1, response(GET, 503, "60")));
+        assertBetween(50, 100, policy.backoffMillis(1, response(GET, 503, "Wed, 21 Oct 2015 07:28:00 GMT")));
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " is not between " + min + " and " + max, actual >= min && actual <= max);
+    }
+
+    private static Response response(Request request, int code, String retryAfter) {
+        final Response.Builder response = new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(code).message("");
+        if (retryAfter != null) {
+            response.header("Retry-After", retryAfter);
+        }
+        return response.build();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SoftLimitBoundedByteArrayOutputStreamTest {
+
+    private static byte[] data(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    @Test
+    public void testGrowsOnDemandUpToLimit() throws Exception {
+        final byte[] data = data(5000);
+        final SoftLimitBoundedByteArrayOutputStream out = new SoftLimitBoundedByteArrayOutputStream(1 << 20);
+        assertEquals(SoftLimitBoundedByteArrayOutputStream.DEFAULT_INITIAL_CAPACITY, out.getBuffer().length);
+
+        out.write(data, 0, 700);
+        out.write(data, 700, data.length - 700);
+        assertEquals(data.length, out.size());
+        assertFalse(out.isTruncated());
+        assertArrayEquals(data, Arrays.copyOf(out.getBuffer(), out.size()));
+    }
+
+    @Test
+    public void testTruncatesAtLimit() throws Exception {
+        final byte[] data = data(5000);
+        final SoftLimitBoundedByteArrayOutputStream out = new SoftLimitBoundedByteArrayOutputStream(3000);
+        for (int i = 0; i < data.length; i += 700) {
+            out.write(data, i, Math.min(700, data.length - i));
+        }
+        out.write(1);
+        assertEquals(3000, out.size());
+        assertTrue(out.isTruncated());
+        assertEquals(3000, out.getBuffer().length);
+        assertArrayEquals(Arrays.copyOf(data, 3000), Arrays.copyOf(out.getBuffer(), out.size()));
+    }
+
+    @Test
+    public void testFillFromStopsAtLimit() throws Exception {
+        final ByteArrayInputStream in = new ByteArrayInputStream(data(5000));
+        final SoftLimitBoundedByteArrayOutputStream out = new SoftLimitBoundedByteArrayOutputStream(256);
+        assertEquals(256, out.fillFrom(in));
+        // nothing past the limit is consumed
+        assertEquals(5000 - 256, in.available());
+    }
+
+    @Test
+    public void testPoolReusesStreams() throws Exception {
+        final CaptureBufferPool pool = new CaptureBufferPool(1);
+        final SoftLimitBoundedByteArrayOutputStream first = pool.acquire(3000);
+        first.write(data(3000), 0, 3000);
+        pool.release(first);
+
+        final SoftLimitBoundedByteArrayOutputStream second = pool.acquire(100);
+        assertSame(first, second);
+        assertEquals(0, second.size());
+        assertEquals(100, second.getLimit());
+        assertEquals(100, second.fillFrom(new ByteArrayInputStream(data(5000))));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+}
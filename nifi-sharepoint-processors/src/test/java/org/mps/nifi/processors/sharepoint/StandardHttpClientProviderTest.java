@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mps.nifi.processors.sharepoint;
+
+import okhttp3.OkHttpClient;
+import org.apache.http.impl.auth.NTLMStandInServer;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StandardHttpClientProviderTest {
+
+    private final StandardHttpClientProvider provider = new StandardHttpClientProvider();
+    private TestRunner testRunner;
+
+    @Before
+    public void init() throws Exception {
+        testRunner = TestRunners.newTestRunner(CustomInvokeHTTP.class);
+        testRunner.addControllerService("provider", provider);
+        testRunner.enableControllerService(provider);
+        testRunner.setProperty(CustomInvokeHTTP.PROP_HTTP_CLIENT_PROVIDER, "provider");
+    }
+
+    @Test
+    public void testConnectionPoolsAreScopedByIdentity() {
+        final OkHttpClient anonymous = provider.getHttpClient(null);
+        final OkHttpClient alice = provider.getHttpClient("NTLM CORP\\alice 1");
+        assertSame(anonymous.dispatcher(), alice.dispatcher());
+        assertNotSame(anonymous.connectionPool(), alice.connectionPool());
+        assertSame(alice.connectionPool(), provider.getHttpClient("NTLM CORP\\alice 1").connectionPool());
+        assertNotSame(alice.connectionPool(), provider.getHttpClient("NTLM CORP\\bob 2").connectionPool());
+        assertEquals(2, provider.getAuthenticatedPoolCount());
+
+        testRunner.disableControllerService(provider);
+        assertNull(provider.getHttpClient(null));
+        assertNull(provider.getHttpClient("NTLM CORP\\alice 1"));
+        assertEquals(0, provider.getAuthenticatedPoolCount());
+        assertTrue(anonymous.dispatcher().executorService().isShutdown());
+    }
+
+    @Test
+    public void testProcessorsSharingTheServiceDoNotShareAuthenticatedConnections() throws Exception {
+        try (NTLMStandInServer server = new NTLMStandInServer("User", "Password", 4)) {
+            testRunner.setProperty(CustomInvokeHTTP.PROP_URL, server.url());
+            testRunner.setProperty(CustomInvokeHTTP.PROP_BASIC_AUTH_USERNAME, "User");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_BASIC_AUTH_PASSWORD, "Password");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_NTLM_DOMAIN, "CORP");
+            testRunner.setProperty(CustomInvokeHTTP.PROP_NTLM_AUTH, "true");
+            testRunner.enqueue(new byte[0]);
+            testRunner.run();
+            testRunner.assertTransferCount(CustomInvokeHTTP.REL_RESPONSE, 1);
+            assertEquals(1, server.getType3Messages());
+
+            // a processor without credentials referencing the same service is not served on the connection authenticated as User
+            final TestRunner anonymousRunner = TestRunners.newTestRunner(CustomInvokeHTTP.class);
+            final SharedProvider shared = new SharedProvider(provider);
+            anonymousRunner.addControllerService("provider", shared);
+            anonymousRunner.enableControllerService(shared);
+            anonymousRunner.setProperty(CustomInvokeHTTP.PROP_HTTP_CLIENT_PROVIDER, "provider");
+            anonymousRunner.setProperty(CustomInvokeHTTP.PROP_URL, server.url());
+            anonymousRunner.enqueue(new byte[0]);
+            anonymousRunner.run();
+
+            anonymousRunner.assertAllFlowFilesTransferred(CustomInvokeHTTP.REL_NO_RETRY, 1);
+            final MockFlowFile rejected = anonymousRunner.getFlowFilesForRelationship(CustomInvokeHTTP.REL_NO_RETRY).get(0);
+            rejected.assertAttributeEquals(CustomInvokeHTTP.STATUS_CODE, "401");
+            assertEquals(1, server.getAuthenticatedRequests());
+        }
+        testRunner.disableControllerService(provider);
+    }
+
+    /**
+     * Stands for the same service instance referenced by a second processor, each test runner keeping services of its own.
+     */
+    private static class SharedProvider extends AbstractControllerService implements HttpClientProvider {
+        private final HttpClientProvider delegate;
+
+        private SharedProvider(final HttpClientProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public OkHttpClient getHttpClient(final String connectionIdentity) {
+            return delegate.getHttpClient(connectionIdentity);
+        }
+    }
+}